@@ -0,0 +1,190 @@
+package org.uwh.trino.kdb;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.airlift.slice.Slice;
+import io.trino.spi.connector.ColumnMetadata;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.ConnectorTableHandle;
+import io.trino.spi.connector.ConnectorTransactionHandle;
+import io.trino.spi.connector.SchemaTableName;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.ptf.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static io.trino.spi.ptf.ReturnTypeSpecification.GenericTable.GENERIC_TABLE;
+import static io.trino.spi.type.BooleanType.BOOLEAN;
+import static io.trino.spi.type.VarcharType.VARCHAR;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * As-of join of two KDB tables with aj, for example trades to the prevailing quotes:
+ * `select * from TABLE(system.asof_join(left => 'trade', right => 'quote', by => 'sym', time => 'time'))`.
+ * Date partitioned left tables are joined one partition per split.
+ */
+public class AsofJoinFunction extends AbstractConnectorTableFunction {
+    private static final Set<KDBType> TIME_TYPES = Set.of(KDBType.Time, KDBType.Timestamp, KDBType.DateTime, KDBType.Date, KDBType.Minute, KDBType.Second, KDBType.TimeSpan);
+
+    private final KDBMetadata metadata;
+
+    public AsofJoinFunction(KDBMetadata metadata) {
+        super("system",
+                "asof_join",
+                List.of(
+                        ScalarArgumentSpecification.builder().name("LEFT").type(VARCHAR).build(),
+                        ScalarArgumentSpecification.builder().name("RIGHT").type(VARCHAR).build(),
+                        // comma separated columns to match exactly
+                        ScalarArgumentSpecification.builder().name("BY").type(VARCHAR).defaultValue(null).build(),
+                        ScalarArgumentSpecification.builder().name("TIME").type(VARCHAR).build(),
+                        // aj0, return the time of the matching right row rather than the left one
+                        ScalarArgumentSpecification.builder().name("RIGHT_TIME").type(BOOLEAN).defaultValue(null).build()),
+                GENERIC_TABLE);
+        this.metadata = metadata;
+    }
+
+    @Override
+    public TableFunctionAnalysis analyze(ConnectorSession session, ConnectorTransactionHandle transaction, Map<String, Argument> arguments) {
+        KDBTableHandle left = resolve(session, stringArgument(arguments, "LEFT"));
+        KDBTableHandle right = resolve(session, stringArgument(arguments, "RIGHT"));
+        List<ColumnMetadata> leftColumns = metadata.getColumns(session, left);
+        List<ColumnMetadata> rightColumns = metadata.getColumns(session, right);
+
+        String by = stringArgument(arguments, "BY");
+        List<String> keys = new ArrayList<>();
+        if (by != null && !by.isBlank()) {
+            Arrays.stream(by.split(",")).map(String::trim).forEach(keys::add);
+        }
+        keys.add(stringArgument(arguments, "TIME").trim());
+
+        // aj needs the same key names on both sides, so right hand keys take the left hand capitalization
+        List<String> keyNames = new ArrayList<>();
+        List<String> rightKeys = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            ColumnMetadata leftKey = findColumn(leftColumns, keys.get(i), left);
+            ColumnMetadata rightKey = findColumn(rightColumns, keys.get(i), right);
+            KDBType type = kdbType(leftKey);
+            if (type != kdbType(rightKey) || (i == keys.size() - 1 && !TIME_TYPES.contains(type))) {
+                throw new IllegalArgumentException("Column " + keys.get(i) + " must have the same " + (i == keys.size() - 1 ? "temporal " : "") + "type on both sides");
+            }
+            keyNames.add(kdbName(leftKey));
+            rightKeys.add(kdbName(leftKey).equals(kdbName(rightKey)) ? kdbName(rightKey) : kdbName(leftKey) + ": " + kdbName(rightKey));
+        }
+
+        // right hand columns of the same name would overwrite the left ones, such as a shared date partition column
+        Set<String> leftNames = leftColumns.stream().map(AsofJoinFunction::kdbName).collect(Collectors.toSet());
+        Set<String> rightKeyNames = rightColumns.stream().map(AsofJoinFunction::kdbName).filter(name -> keyNames.stream().anyMatch(name::equalsIgnoreCase)).collect(Collectors.toSet());
+        List<ColumnMetadata> rightExtra = rightColumns.stream()
+                .filter(col -> !leftNames.contains(kdbName(col)) && !rightKeyNames.contains(kdbName(col)))
+                .collect(Collectors.toList());
+
+        if (left.isPartitioned() && left.getPartitionColumn().orElseThrow().getKdbType() != KDBType.Date) {
+            throw new UnsupportedOperationException("Only date partition key implemented yet");
+        }
+        // the right hand side is only bounded by the partitions of the left one, else aj would read the whole database in one call
+        if (right.isPartitioned() && !left.isPartitioned()) {
+            throw new IllegalArgumentException("Partitioned table " + right.getQualifiedTableName() + " can only be joined to a partitioned table, not to " + left.getQualifiedTableName());
+        }
+
+        String leftSelect = "select from " + left.getQualifiedTableName();
+        String rightSelect = "select " + String.join(", ", rightKeys)
+                + rightExtra.stream().map(col -> ", " + kdbName(col)).collect(Collectors.joining())
+                + " from " + right.getQualifiedTableName();
+        if (left.isPartitioned()) {
+            leftSelect += " where " + left.getPartitionColumn().get().getName() + " in partitions";
+            if (right.isPartitioned()) {
+                rightSelect += " where " + right.getPartitionColumn().orElseThrow().getName() + " in partitions";
+            }
+        }
+
+        String keyList = keyNames.stream().map(name -> "`" + name).collect(Collectors.joining());
+        boolean rightTime = Boolean.TRUE.equals(((ScalarArgument) arguments.get("RIGHT_TIME")).getValue());
+        String aj = (rightTime ? "aj0[" : "aj[") + (keyNames.size() == 1 ? "enlist " : "") + keyList + "; " + leftSelect + "; " + rightSelect + "]";
+        // partitioned queries are functions of the partitions to read, see KDBTableHandle.getTableNameQuery
+        String query = left.isPartitioned() ? "{[partitions] " + aj + "}" : aj;
+
+        KDBTableHandle handle = new KDBTableHandle("", query, TupleDomain.all(), OptionalLong.empty(), left.isPartitioned(), left.getPartitionColumn(), left.getPartitions(), List.of(), Optional.empty());
+        List<KDBColumnHandle> columns = new ArrayList<>();
+        leftColumns.forEach(col -> columns.add(new KDBColumnHandle(kdbName(col), col.getType(), kdbType(col), Optional.empty(), (boolean) col.getProperties().get("kdb.isPartitionColumn"))));
+        rightExtra.forEach(col -> columns.add(new KDBColumnHandle(kdbName(col), col.getType(), kdbType(col), Optional.empty(), false)));
+
+        Descriptor returnedType = new Descriptor(columns.stream()
+                .map(column -> new Descriptor.Field(column.getName(), Optional.of(column.getType())))
+                .collect(toImmutableList()));
+
+        return TableFunctionAnalysis.builder()
+                .returnedType(returnedType)
+                .handle(new AsofJoinHandle(handle, columns))
+                .build();
+    }
+
+    /**
+     * Tables are named like in Trino, as table or schema.table.
+     */
+    private KDBTableHandle resolve(ConnectorSession session, String name) {
+        int dot = name.lastIndexOf('.');
+        SchemaTableName tableName = dot < 0
+                ? new SchemaTableName(KDBMetadata.SCHEMA_NAME, name)
+                : new SchemaTableName(name.substring(0, dot), name.substring(dot + 1));
+        KDBTableHandle handle = (KDBTableHandle) metadata.getTableHandle(session, tableName);
+        if (handle.isQuery()) {
+            throw new IllegalArgumentException("Expected a table name: " + name);
+        }
+        return handle;
+    }
+
+    private static ColumnMetadata findColumn(List<ColumnMetadata> columns, String name, KDBTableHandle table) {
+        return columns.stream()
+                .filter(col -> kdbName(col).equals(name))
+                .findFirst()
+                .or(() -> columns.stream().filter(col -> kdbName(col).equalsIgnoreCase(name)).findFirst())
+                .orElseThrow(() -> new IllegalArgumentException("Column " + name + " does not exist in " + table.getQualifiedTableName()));
+    }
+
+    private static String stringArgument(Map<String, Argument> arguments, String name) {
+        Object value = ((ScalarArgument) arguments.get(name)).getValue();
+        return value == null ? null : ((Slice) value).toStringUtf8();
+    }
+
+    private static String kdbName(ColumnMetadata column) {
+        return (String) column.getProperties().get("kdb.name");
+    }
+
+    private static KDBType kdbType(ColumnMetadata column) {
+        return (KDBType) column.getProperties().get("kdb.type");
+    }
+
+    public static class AsofJoinHandle implements ConnectorTableFunctionHandle
+    {
+        private final KDBTableHandle tableHandle;
+        // the result columns, which KDB cannot describe without running the join
+        private final List<KDBColumnHandle> columns;
+
+        @JsonCreator
+        public AsofJoinHandle(@JsonProperty("tableHandle") KDBTableHandle tableHandle, @JsonProperty("columns") List<KDBColumnHandle> columns)
+        {
+            this.tableHandle = requireNonNull(tableHandle, "tableHandle is null");
+            this.columns = requireNonNull(columns, "columns is null");
+        }
+
+        @JsonProperty
+        public ConnectorTableHandle getTableHandle()
+        {
+            return tableHandle;
+        }
+
+        @JsonProperty
+        public List<KDBColumnHandle> getColumns()
+        {
+            return columns;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.uwh.trino.kdb;
 import io.trino.spi.session.PropertyMetadata;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
@@ -32,10 +33,30 @@ public class Config {
     public static final String KDB_METADATA_REFRESH_INTERVAL = "kdb.metadata.refresh.interval.seconds";
     public static final String DEFAULT_METADATA_REFRESH_INTERVAL = String.valueOf(60*60); // 1 hour
 
+    public static final String KDB_METADATA_SNAPSHOT_FILE = "kdb.metadata.snapshot.file";
+
+    public static final String KDB_STATS_REFRESH_INTERVAL = "kdb.stats.refresh.interval.seconds";
+    public static final String DEFAULT_STATS_REFRESH_INTERVAL = String.valueOf(10*60); // 10 minutes
+
+    public static final String KDB_STATS_CACHE_MAX_SIZE = "kdb.stats.cache.max.size";
+    public static final String DEFAULT_STATS_CACHE_MAX_SIZE = "1000";
+
     public static final String KDB_PUSH_DOWN_AGGREGATION = "push.down.aggregation";
     public static final String DEFAULT_PUSH_DOWN_AGGREGATION = "true";
     public static final String SESSION_PUSH_DOWN_AGGREGATION = "push_down_aggregation";
 
+    public static final String KDB_PUSH_DOWN_PROJECTION = "push.down.projection";
+    public static final String DEFAULT_PUSH_DOWN_PROJECTION = "true";
+    public static final String SESSION_PUSH_DOWN_PROJECTION = "push_down_projection";
+
+    public static final String KDB_PUSH_DOWN_TOPN = "push.down.topn";
+    public static final String DEFAULT_PUSH_DOWN_TOPN = "true";
+    public static final String SESSION_PUSH_DOWN_TOPN = "push_down_topn";
+
+    public static final String KDB_PUSH_DOWN_JOIN = "push.down.join";
+    public static final String DEFAULT_PUSH_DOWN_JOIN = "true";
+    public static final String SESSION_PUSH_DOWN_JOIN = "push_down_join";
+
     public static final String KDB_VIRTUAL_TABLES = "virtual.tables";
     public static final String DEFAULT_VIRTUAL_TABLES = "false";
     public static final String SESSION_VIRTUAL_TABLES = "virtual_tables";
@@ -48,6 +69,59 @@ public class Config {
     public static final String DEFAULT_PUSH_DOWN_LIKE = "false";
     public static final String SESSION_PUSH_DOWN_LIKE = "push_down_like";
 
+    public static final String KDB_USE_CURSOR = "use.cursor";
+    public static final String DEFAULT_USE_CURSOR = "false";
+    public static final String SESSION_USE_CURSOR = "use_cursor";
+
+    public static final String KDB_DIRECT_DECODE = "direct.decode";
+    public static final String DEFAULT_DIRECT_DECODE = "false";
+    public static final String SESSION_DIRECT_DECODE = "direct_decode";
+
+    public static final String KDB_SYMBOL_DICTIONARY = "symbol.dictionary";
+    public static final String DEFAULT_SYMBOL_DICTIONARY = "true";
+    public static final String SESSION_SYMBOL_DICTIONARY = "symbol_dictionary";
+
+    public static final String KDB_DYNAMIC_FILTER_WAIT_TIMEOUT = "dynamic.filter.wait.timeout.ms";
+    public static final String DEFAULT_DYNAMIC_FILTER_WAIT_TIMEOUT = "1000";
+    public static final String SESSION_DYNAMIC_FILTER_WAIT_TIMEOUT = "dynamic_filter_wait_timeout_ms";
+
+    public static final String KDB_SPLIT_TARGET_ROWS = "split.target.rows";
+    public static final String DEFAULT_SPLIT_TARGET_ROWS = "0";
+    public static final String SESSION_SPLIT_TARGET_ROWS = "split_target_rows";
+
+    public static final String KDB_SEGMENT_INTERLEAVE = "segment.interleave";
+    public static final String DEFAULT_SEGMENT_INTERLEAVE = "false";
+    public static final String SESSION_SEGMENT_INTERLEAVE = "segment_interleave";
+
+    public static final String KDB_SPLIT_AFFINITY = "split.affinity";
+    public static final String DEFAULT_SPLIT_AFFINITY = "none";
+    public static final String SESSION_SPLIT_AFFINITY = "split_affinity";
+
+    public static final String KDB_SPLIT_AFFINITY_WORKERS = "split.affinity.workers";
+
+    public static final String KDB_SPLIT_AFFINITY_SLICES = "split.affinity.slices";
+    public static final String DEFAULT_SPLIT_AFFINITY_SLICES = "false";
+
+    public static final String KDB_PREFETCH_PAGES = "prefetch.pages";
+    public static final String DEFAULT_PREFETCH_PAGES = "1";
+    public static final String SESSION_PREFETCH_PAGES = "prefetch_pages";
+
+    public static final String KDB_POOL_MAX_SIZE = "kdb.pool.max.size";
+    public static final String DEFAULT_POOL_MAX_SIZE = "8";
+
+    public static final String KDB_POOL_IDLE_TIMEOUT = "kdb.pool.idle.timeout.seconds";
+    public static final String DEFAULT_POOL_IDLE_TIMEOUT = String.valueOf(5*60); // 5 minutes
+
+    public static final String KDB_POOL_WAIT_TIMEOUT = "kdb.pool.wait.timeout.seconds";
+    public static final String DEFAULT_POOL_WAIT_TIMEOUT = "60";
+
+    public static final String KDB_MAX_IN_FLIGHT_REQUESTS = "kdb.max.in.flight.requests";
+    public static final String DEFAULT_MAX_IN_FLIGHT_REQUESTS = "0";
+
+    public static final String KDB_REQUEST_PRIORITY = "request.priority";
+    public static final String DEFAULT_REQUEST_PRIORITY = "0";
+    public static final String SESSION_REQUEST_PRIORITY = "request_priority";
+
     private final Map<String,String> config;
 
     public Config(Map<String,String> config) {
@@ -57,12 +131,24 @@ public class Config {
     public List<PropertyMetadata<?>> getSessionProperties() {
         return List.of(
                 PropertyMetadata.booleanProperty(SESSION_PUSH_DOWN_AGGREGATION, "Push down aggregations into KDB", pushDownAggregation(), false),
+                PropertyMetadata.booleanProperty(SESSION_PUSH_DOWN_PROJECTION, "Push down expressions in the select list into KDB", pushDownProjection(), false),
+                PropertyMetadata.booleanProperty(SESSION_PUSH_DOWN_TOPN, "Push down ORDER BY with LIMIT into KDB", pushDownTopN(), false),
+                PropertyMetadata.booleanProperty(SESSION_PUSH_DOWN_JOIN, "Push down inner and left joins between KDB tables when the join is smaller than its inputs", pushDownJoin(), false),
                 PropertyMetadata.booleanProperty(SESSION_USE_STATS, "Use statistics", useStats(), false),
                 PropertyMetadata.booleanProperty(SESSION_DYNAMIC_STATS, "Calculate stats dynamically for tables without pre-generated stats", useDynamicStats(),false),
                 PropertyMetadata.integerProperty(SESSION_PAGE_SIZE, "Page size for sourcing KDB data in rows", getPageSize(), false),
                 PropertyMetadata.booleanProperty(SESSION_VIRTUAL_TABLES, "Treat tables as virtual tables", getVirtualTables(), false),
                 PropertyMetadata.stringProperty(SESSION_INSERT_FUNCTION, "Insert function to use in KDB", getInsertFunction(), false),
-                PropertyMetadata.booleanProperty(SESSION_PUSH_DOWN_LIKE, "Push down like filter expressions", pushDownLike(), false)
+                PropertyMetadata.booleanProperty(SESSION_PUSH_DOWN_LIKE, "Push down like filter expressions", pushDownLike(), false),
+                PropertyMetadata.booleanProperty(SESSION_USE_CURSOR, "Run queries once and page through the result held in KDB", useCursor(), false),
+                PropertyMetadata.integerProperty(SESSION_PREFETCH_PAGES, "Number of pages to fetch ahead of the consumer (0 to fetch synchronously)", getPrefetchPages(), false),
+                PropertyMetadata.booleanProperty(SESSION_DIRECT_DECODE, "Decode KDB results directly into Trino blocks", useDirectDecode(), false),
+                PropertyMetadata.booleanProperty(SESSION_SYMBOL_DICTIONARY, "Return symbol columns as dictionary blocks", useSymbolDictionary(), false),
+                PropertyMetadata.integerProperty(SESSION_DYNAMIC_FILTER_WAIT_TIMEOUT, "Maximum time in milliseconds to wait for dynamic filters before reading from KDB", getDynamicFilterWaitTimeout(), false),
+                PropertyMetadata.integerProperty(SESSION_SPLIT_TARGET_ROWS, "Split tables and partitions into row ranges of this many rows (0 to disable)", getSplitTargetRows(), false),
+                PropertyMetadata.booleanProperty(SESSION_SEGMENT_INTERLEAVE, "Alternate splits of partitioned tables between the segments of a segmented database", useSegmentInterleave(), false),
+                PropertyMetadata.enumProperty(SESSION_SPLIT_AFFINITY, "Schedule splits on the worker colocated with their KDB endpoint (none, soft or hard)", KDBSplitAffinity.Mode.class, getSplitAffinity(), false),
+                PropertyMetadata.integerProperty(SESSION_REQUEST_PRIORITY, "Priority of KDB requests when waiting for admission, higher goes first", getRequestPriority(), false)
         );
     }
 
@@ -107,10 +193,34 @@ public class Config {
         return Boolean.parseBoolean(config.getOrDefault(KDB_PUSH_DOWN_AGGREGATION, DEFAULT_PUSH_DOWN_AGGREGATION));
     }
 
+    public boolean pushDownProjection() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_PUSH_DOWN_PROJECTION, DEFAULT_PUSH_DOWN_PROJECTION));
+    }
+
+    public boolean pushDownTopN() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_PUSH_DOWN_TOPN, DEFAULT_PUSH_DOWN_TOPN));
+    }
+
+    public boolean pushDownJoin() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_PUSH_DOWN_JOIN, DEFAULT_PUSH_DOWN_JOIN));
+    }
+
     public int getMetadataRefreshInterval() {
         return Integer.parseInt(config.getOrDefault(KDB_METADATA_REFRESH_INTERVAL, DEFAULT_METADATA_REFRESH_INTERVAL));
     }
 
+    public Optional<String> getMetadataSnapshotFile() {
+        return Optional.ofNullable(config.get(KDB_METADATA_SNAPSHOT_FILE)).filter(file -> !file.isBlank());
+    }
+
+    public int getStatsRefreshInterval() {
+        return Integer.parseInt(config.getOrDefault(KDB_STATS_REFRESH_INTERVAL, DEFAULT_STATS_REFRESH_INTERVAL));
+    }
+
+    public int getStatsCacheMaxSize() {
+        return Integer.parseInt(config.getOrDefault(KDB_STATS_CACHE_MAX_SIZE, DEFAULT_STATS_CACHE_MAX_SIZE));
+    }
+
     public boolean getVirtualTables() {
         return Boolean.parseBoolean(config.getOrDefault(KDB_VIRTUAL_TABLES, DEFAULT_VIRTUAL_TABLES));
     }
@@ -122,4 +232,64 @@ public class Config {
     public boolean pushDownLike() {
         return Boolean.parseBoolean(config.getOrDefault(KDB_PUSH_DOWN_LIKE, DEFAULT_PUSH_DOWN_LIKE));
     }
+
+    public boolean useCursor() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_USE_CURSOR, DEFAULT_USE_CURSOR));
+    }
+
+    public boolean useDirectDecode() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_DIRECT_DECODE, DEFAULT_DIRECT_DECODE));
+    }
+
+    public boolean useSymbolDictionary() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_SYMBOL_DICTIONARY, DEFAULT_SYMBOL_DICTIONARY));
+    }
+
+    public int getDynamicFilterWaitTimeout() {
+        return Integer.parseInt(config.getOrDefault(KDB_DYNAMIC_FILTER_WAIT_TIMEOUT, DEFAULT_DYNAMIC_FILTER_WAIT_TIMEOUT));
+    }
+
+    public int getSplitTargetRows() {
+        return Integer.parseInt(config.getOrDefault(KDB_SPLIT_TARGET_ROWS, DEFAULT_SPLIT_TARGET_ROWS));
+    }
+
+    public boolean useSegmentInterleave() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_SEGMENT_INTERLEAVE, DEFAULT_SEGMENT_INTERLEAVE));
+    }
+
+    public KDBSplitAffinity.Mode getSplitAffinity() {
+        return KDBSplitAffinity.Mode.valueOf(config.getOrDefault(KDB_SPLIT_AFFINITY, DEFAULT_SPLIT_AFFINITY).toUpperCase(Locale.ENGLISH));
+    }
+
+    public Map<String, String> getSplitAffinityWorkers() {
+        return KDBSplitAffinity.parseWorkerHosts(config.get(KDB_SPLIT_AFFINITY_WORKERS));
+    }
+
+    public boolean useSplitAffinitySlices() {
+        return Boolean.parseBoolean(config.getOrDefault(KDB_SPLIT_AFFINITY_SLICES, DEFAULT_SPLIT_AFFINITY_SLICES));
+    }
+
+    public int getPrefetchPages() {
+        return Integer.parseInt(config.getOrDefault(KDB_PREFETCH_PAGES, DEFAULT_PREFETCH_PAGES));
+    }
+
+    public int getPoolMaxSize() {
+        return Integer.parseInt(config.getOrDefault(KDB_POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE));
+    }
+
+    public long getPoolIdleTimeout() {
+        return Long.parseLong(config.getOrDefault(KDB_POOL_IDLE_TIMEOUT, DEFAULT_POOL_IDLE_TIMEOUT));
+    }
+
+    public long getPoolWaitTimeout() {
+        return Long.parseLong(config.getOrDefault(KDB_POOL_WAIT_TIMEOUT, DEFAULT_POOL_WAIT_TIMEOUT));
+    }
+
+    public int getMaxInFlightRequests() {
+        return Integer.parseInt(config.getOrDefault(KDB_MAX_IN_FLIGHT_REQUESTS, DEFAULT_MAX_IN_FLIGHT_REQUESTS));
+    }
+
+    public int getRequestPriority() {
+        return Integer.parseInt(config.getOrDefault(KDB_REQUEST_PRIORITY, DEFAULT_REQUEST_PRIORITY));
+    }
 }
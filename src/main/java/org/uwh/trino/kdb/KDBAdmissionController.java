@@ -0,0 +1,241 @@
+package org.uwh.trino.kdb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests in flight against a single KDB endpoint.
+ * A q process executes one request at a time, so anything beyond a handful of concurrent requests only queues inside KDB,
+ * where a long running extract blocks every interactive query behind it.
+ * Waiting requests are admitted by priority first, then round robin across users and, per user, across queries.
+ */
+public class KDBAdmissionController {
+    private final String endpoint;
+    private final int maxInFlight;
+    private final long waitTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // priority -> user -> query -> waiters, highest priority first, insertion order is the round robin order
+    private final NavigableMap<Integer, Map<String, Map<String, Deque<Waiter>>>> waiting = new TreeMap<>((a, b) -> Integer.compare(b, a));
+    private int inFlight = 0;
+    private int queued = 0;
+
+    public KDBAdmissionController(String endpoint, int maxInFlight, long waitTimeoutSeconds) {
+        this.endpoint = endpoint;
+        this.maxInFlight = maxInFlight;
+        this.waitTimeoutNanos = TimeUnit.SECONDS.toNanos(waitTimeoutSeconds);
+    }
+
+    public boolean isEnabled() {
+        return maxInFlight > 0;
+    }
+
+    /**
+     * Block until the request may be sent to KDB. Every successful call must be followed by a call to {@link #release()}.
+     */
+    public void acquire(Ticket ticket) throws Exception {
+        if (!isEnabled()) {
+            ticket.admitted(0, 0);
+            return;
+        }
+
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (queued == 0 && inFlight < maxInFlight) {
+                inFlight++;
+                ticket.admitted(0, 0);
+                return;
+            }
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            waiting.computeIfAbsent(ticket.getPriority(), p -> new LinkedHashMap<>())
+                    .computeIfAbsent(ticket.getUser(), u -> new LinkedHashMap<>())
+                    .computeIfAbsent(ticket.getQueryId(), q -> new ArrayDeque<>())
+                    .addLast(waiter);
+            queued++;
+            int depth = queued;
+
+            long remaining = waitTimeoutNanos;
+            try {
+                while (!waiter.admitted) {
+                    if (remaining <= 0) {
+                        remove(ticket, waiter);
+                        throw new TimeoutException("Timed out waiting to send request to KDB " + endpoint + " (" + maxInFlight + " requests in flight, " + queued + " queued)");
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                // hand the slot on if it was granted while being interrupted
+                if (waiter.admitted) {
+                    inFlight--;
+                    admitNext();
+                } else {
+                    remove(ticket, waiter);
+                }
+                throw e;
+            }
+            ticket.admitted(System.nanoTime() - start, depth);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            inFlight--;
+            admitNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // must hold lock
+    private void admitNext() {
+        while (inFlight < maxInFlight && !waiting.isEmpty()) {
+            Map<String, Map<String, Deque<Waiter>>> users = waiting.firstEntry().getValue();
+            Iterator<Map.Entry<String, Map<String, Deque<Waiter>>>> userIt = users.entrySet().iterator();
+            Map.Entry<String, Map<String, Deque<Waiter>>> user = userIt.next();
+            Iterator<Map.Entry<String, Deque<Waiter>>> queryIt = user.getValue().entrySet().iterator();
+            Map.Entry<String, Deque<Waiter>> query = queryIt.next();
+
+            Waiter waiter = query.getValue().pollFirst();
+            // rotate the user and query that were just served to the back of the line
+            queryIt.remove();
+            if (!query.getValue().isEmpty()) {
+                user.getValue().put(query.getKey(), query.getValue());
+            }
+            userIt.remove();
+            if (!user.getValue().isEmpty()) {
+                users.put(user.getKey(), user.getValue());
+            }
+            if (users.isEmpty()) {
+                waiting.pollFirstEntry();
+            }
+
+            queued--;
+            inFlight++;
+            waiter.admitted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    // must hold lock
+    private void remove(Ticket ticket, Waiter waiter) {
+        Map<String, Map<String, Deque<Waiter>>> users = waiting.get(ticket.getPriority());
+        Map<String, Deque<Waiter>> queries = users.get(ticket.getUser());
+        Deque<Waiter> waiters = queries.get(ticket.getQueryId());
+        waiters.remove(waiter);
+        queued--;
+        if (waiters.isEmpty()) {
+            queries.remove(ticket.getQueryId());
+            if (queries.isEmpty()) {
+                users.remove(ticket.getUser());
+                if (users.isEmpty()) {
+                    waiting.remove(ticket.getPriority());
+                }
+            }
+        }
+    }
+
+    private static class Waiter {
+        private final Condition condition;
+        private boolean admitted = false;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * Identifies who a request is sent on behalf of and collects how long its requests had to queue.
+     */
+    public static class Ticket {
+        public static final Ticket UNTRACKED = new Ticket("", "", 0);
+
+        private final String queryId;
+        private final String user;
+        private final int priority;
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong queuedRequests = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxQueueDepth = new AtomicLong();
+
+        public Ticket(String queryId, String user, int priority) {
+            this.queryId = queryId;
+            this.user = user;
+            this.priority = priority;
+        }
+
+        public String getQueryId() {
+            return queryId;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getQueuedRequests() {
+            return queuedRequests.get();
+        }
+
+        public long getWaitNanos() {
+            return waitNanos.get();
+        }
+
+        public long getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        private void admitted(long waited, int depth) {
+            requests.incrementAndGet();
+            if (depth > 0) {
+                queuedRequests.incrementAndGet();
+                waitNanos.addAndGet(waited);
+                maxQueueDepth.accumulateAndGet(depth, Math::max);
+            }
+        }
+    }
+}
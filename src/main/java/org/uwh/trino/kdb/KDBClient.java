@@ -3,7 +3,7 @@ package org.uwh.trino.kdb;
 import com.google.common.collect.ImmutableList;
 import io.airlift.log.Logger;
 import io.trino.spi.Page;
-import io.trino.spi.PageBuilder;
+import io.trino.spi.block.Block;
 import io.trino.spi.block.BlockBuilder;
 import io.trino.spi.connector.ColumnHandle;
 import io.trino.spi.connector.ColumnMetadata;
@@ -24,66 +24,167 @@ import java.util.stream.IntStream;
 
 public class KDBClient {
     private static final Logger LOGGER = Logger.get(KDBClient.class);
-    private final String host;
-    private final int port;
-    private final String user;
-    private final String password;
-    private com.kx.c connection = null;
+    private static final String CURSOR_NAMESPACE = ".trino.cursor";
+    private static final String DESCRIBE_TABLE = "{[t] p:`boolean$.Q.qp t; m:0!meta t; "
+            + "`partitioned`columns`types`attributes`partitions!(p; m`c; m`t; m`a; $[p; string .Q.pv; ()])}";
+    private static final String DESCRIBE_NAMESPACE = "{[ns] ts:tables ns; qs:$[ns=`.; ts; `$(string[ns],\".\"),/:string ts]; m:{0!meta x} each qs; "
+            + "([] table:ts; partitioned:{`boolean$.Q.qp value x} each qs; columns:m@\\:`c; types:m@\\:`t; attributes:m@\\:`a)}";
+    private final List<Replica> replicas;
+    // replica, as host:port, to use while it is healthy
+    private final Optional<String> preferred;
+    private final KDBAdmissionController.Ticket ticket;
+
+    public KDBClient(KDBConnectionPool pool) {
+        this(List.of(new Replica(pool, new KDBEndpoint(pool.getHost(), pool.getPort(), 0, 0))), KDBAdmissionController.Ticket.UNTRACKED);
+    }
 
-    public KDBClient(String host, int port, String user, String password) throws Exception {
-        this.host = host;
-        this.port = port;
-        this.user = user;
-        this.password = password;
+    public KDBClient(List<Replica> replicas, KDBAdmissionController.Ticket ticket) {
+        this(replicas, Optional.empty(), ticket);
     }
 
-    public String getHost() {
-        return host;
+    private KDBClient(List<Replica> replicas, Optional<String> preferred, KDBAdmissionController.Ticket ticket) {
+        this.replicas = replicas;
+        this.preferred = preferred;
+        this.ticket = ticket;
     }
 
-    public int getPort() {
-        return port;
+    /**
+     * A client sharing this client's connections whose requests are admitted on behalf of the given ticket.
+     */
+    public KDBClient withTicket(KDBAdmissionController.Ticket ticket) {
+        return new KDBClient(replicas, preferred, ticket);
     }
 
-    private void connect() throws Exception {
-        if (user != null && password != null) {
-            connection = new c(host, port, user + ":" + password);
-        } else {
-            connection = new c(host, port);
-        }
+    /**
+     * A client that sends its requests to the given replica while it is healthy, and fails over like any other client.
+     */
+    public KDBClient preferring(String endpoint) {
+        return new KDBClient(replicas, Optional.of(endpoint), ticket);
     }
 
-    private Object exec(String expr) throws Exception {
-        if (connection == null) {
-            connect();
+    /**
+     * A client that only sends requests to the given replica, for data that no other replica holds.
+     */
+    public KDBClient onlyOn(String endpoint) {
+        List<Replica> selected = replicas.stream().filter(r -> r.endpoint.toString().equals(endpoint)).collect(Collectors.toList());
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("Unknown KDB endpoint " + endpoint + ", expected one of " + getEndpoints());
         }
+        return new KDBClient(selected, Optional.empty(), ticket);
+    }
 
-        try {
-            LOGGER.info("KDB query: "+expr);
-            return connection.k(expr);
-        // SocketException & EOFEXception
-        } catch (IOException e) {
-            // happens when connection has been lost, for example KDB process restarted
-            // try reconnect
-            connect();
-            return connection.k(expr);
+    /**
+     * A client that sends all its requests to the currently least loaded replica, for state held in a q process such as cursors.
+     */
+    public KDBClient pinned() {
+        if (replicas.size() == 1) {
+            return this;
         }
+        return new KDBClient(List.of(selectReplicas().get(0)), Optional.empty(), ticket);
+    }
+
+    public KDBAdmissionController.Ticket getTicket() {
+        return ticket;
+    }
+
+    public String getEndpoints() {
+        return replicas.stream().map(r -> r.endpoint.toString()).collect(Collectors.joining(","));
+    }
+
+    public void close() {
+        replicas.forEach(r -> r.pool.close());
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        Object run(c connection) throws Exception;
+    }
+
+    private Object exec(String expr) throws Exception {
+        LOGGER.info("KDB query: "+expr);
+        return exec(conn -> conn.k(expr));
     }
 
     private Object exec(String expr, Object arg) throws Exception {
-        if (connection == null) {
-            connect();
+        LOGGER.info("KDB query: "+expr);
+        return exec(conn -> conn.k(expr, arg));
+    }
+
+    private Object exec(Request request) throws Exception {
+        IOException failure = null;
+        for (Replica replica : selectReplicas()) {
+            try {
+                return exec(replica, request);
+            } catch (IOException e) {
+                // the replica could not be reached even on a fresh connection, fail over to the next one
+                LOGGER.warn(e, "KDB replica " + replica.endpoint + " failed, marking it as down");
+                replica.endpoint.markDown();
+                failure = e;
+            }
         }
+        throw failure;
+    }
 
+    // healthy replicas, the preferred one or else least loaded first, followed by replicas that recently failed as a last resort
+    private List<Replica> selectReplicas() {
+        if (replicas.size() == 1) {
+            return replicas;
+        }
+        return replicas.stream()
+                .sorted(Comparator.comparing((Replica r) -> !r.endpoint.isHealthy())
+                        .thenComparing(r -> !preferred.equals(Optional.of(r.endpoint.toString())))
+                        .thenComparingDouble(r -> r.endpoint.getLoad()))
+                .collect(Collectors.toList());
+    }
+
+    private Object exec(Replica replica, Request request) throws Exception {
+        KDBAdmissionController admission = replica.endpoint.getAdmission();
+        admission.acquire(ticket);
+        long start = replica.endpoint.begin();
+        boolean succeeded = false;
         try {
-            LOGGER.info("KDB query: "+expr);
-            return connection.k(expr, arg);
+            Object res = execAdmitted(replica.pool, request);
+            succeeded = true;
+            return res;
+        } finally {
+            replica.endpoint.end(start, succeeded);
+            admission.release();
+        }
+    }
+
+    private static Object execAdmitted(KDBConnectionPool pool, Request request) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            c connection = pool.borrow();
+            try {
+                Object res = request.run(connection);
+                pool.release(connection);
+                return res;
             // SocketException & EOFEXception
-        } catch (IOException e) {
-            // happens when connection has been lost, for example KDB process restarted
-            // try reconnect
-            connect();
-            return connection.k(expr, arg);
+            } catch (IOException e) {
+                // happens when connection has been lost, for example KDB process restarted
+                // discard the connection and retry once on a fresh one
+                pool.invalidate(connection);
+                if (attempt > 0) {
+                    throw e;
+                }
+            } catch (Exception e) {
+                // KDB errors leave the connection intact
+                pool.release(connection);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Connections of one credential to one replica.
+     */
+    public static class Replica {
+        private final KDBConnectionPool pool;
+        private final KDBEndpoint endpoint;
+
+        public Replica(KDBConnectionPool pool, KDBEndpoint endpoint) {
+            this.pool = pool;
+            this.endpoint = endpoint;
         }
     }
 
@@ -104,40 +205,154 @@ public class KDBClient {
         return IntStream.range(0, namespaces.length).mapToObj(i -> new String[] { namespaces[i].substring(1), tables[i]}).collect(Collectors.toList());
     }
 
-    private boolean isPartitioned(String name) throws Exception {
+    public boolean isPartitioned(String name) throws Exception {
         return !KDBTableHandle.isQuery(name) && (boolean) exec("`boolean$.Q.qp["+name+"]");
     }
 
+    public KDBColumnHandle getPartitionColumn(String qualifiedTableName) throws Exception {
+        Object[] colInfo = (Object[]) exec("((0!meta " + qualifiedTableName + ")[`c][0]; (0!meta " + qualifiedTableName + ")[`t][0])");
+        String colName = (String) colInfo[0];
+        KDBType colType = KDBType.fromTypeCode((char) colInfo[1]);
+        return new KDBColumnHandle(colName, colType.getTrinoType(), colType, Optional.empty(), true);
+    }
+
+    /**
+     * Partitions of the database, as listed in .Q.pv, starting with the given index.
+     */
+    public List<String> getPartitions(int from) throws Exception {
+        List<String> partitions = new ArrayList<>();
+        for (Object partition : (Object[]) exec("string " + from + "_ .Q.pv")) {
+            partitions.add(new String((char[]) partition));
+        }
+        return partitions;
+    }
+
+    /**
+     * Number of partitions of the database and the last of them, enough to tell whether partitions were added.
+     */
+    public Map.Entry<Integer, String> getLatestPartition() throws Exception {
+        Object[] res = (Object[]) exec("(count .Q.pv; string last .Q.pv)");
+        return Map.entry((int) (long) res[0], new String((char[]) res[1]));
+    }
+
     public KDBTableHandle getTableHandle(String namespace, String name) throws Exception {
         String qualifiedTableName = (namespace.equals("") ? "" : "." + namespace + ".") + name;
         boolean isPartitioned = isPartitioned(qualifiedTableName);
         List<String> partitions = List.of();
         Optional<KDBColumnHandle> partitionColumn = Optional.empty();
         if (isPartitioned) {
-            Object[] colInfo = (Object[]) exec("((0!meta " + qualifiedTableName + ")[`c][0]; (0!meta " + qualifiedTableName + ")[`t][0])");
-            String colName = (String) colInfo[0];
-            KDBType colType = KDBType.fromTypeCode((char) colInfo[1]);
-            partitionColumn = Optional.of(new KDBColumnHandle(colName, colType.getTrinoType(), colType, Optional.empty(), true));
-
-            partitions = new ArrayList<>();
-            for (Object partition : (Object[]) exec("string (select distinct " + colName +" from " + qualifiedTableName + ")[`" + colName + "]")) {
-                partitions.add(new String((char[]) partition));
-            }
+            partitionColumn = Optional.of(getPartitionColumn(qualifiedTableName));
+            partitions = getPartitions(0);
         }
 
-        return new KDBTableHandle(namespace, name, TupleDomain.all(), OptionalLong.empty(), isPartitioned, partitionColumn, partitions, List.of());
+        return new KDBTableHandle(namespace, name, TupleDomain.all(), OptionalLong.empty(), isPartitioned, partitionColumn, partitions, List.of(), Optional.empty());
     }
 
-    public List<ColumnMetadata> getTableMeta(KDBTableHandle handle) throws Exception {
-        boolean isPartitioned = handle.isPartitioned();
+    public long getRowCount(KDBTableHandle handle) throws Exception {
+        return (long) exec("count " + handle.getTableNameQuery());
+    }
+
+    /**
+     * Row counts of all partitions of a partitioned table, keyed by partition as in KDBTableHandle.getPartitions().
+     */
+    public Map<String, Long> getPartitionRowCounts(KDBTableHandle handle) throws Exception {
+        Object[] res = (Object[]) exec("(string .Q.pv; .Q.cn " + handle.getQualifiedTableName() + ")");
+        Object[] partitions = (Object[]) res[0];
+        long[] counts = (long[]) res[1];
+        Map<String, Long> result = new HashMap<>();
+        for (int i = 0; i < partitions.length; i++) {
+            result.put(new String((char[]) partitions[i]), counts[i]);
+        }
+        return result;
+    }
 
+    /**
+     * Segment (disk location) of each partition of a segmented database, keyed by partition as in KDBTableHandle.getPartitions().
+     * Empty when the database is not segmented.
+     */
+    public Map<String, String> getPartitionSegments() throws Exception {
+        // .Q.pd, the segment of each entry of .Q.pv, only exists when the database was loaded from a par.txt
+        Object[] res = (Object[]) exec("(string .Q.pv; @[{string value x}; `.Q.pd; ()])");
+        Object[] partitions = (Object[]) res[0];
+        Object[] segments = (Object[]) res[1];
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < segments.length; i++) {
+            result.put(new String((char[]) partitions[i]), new String((char[]) segments[i]));
+        }
+        return result;
+    }
+
+    /**
+     * The replica, as host:port, holding each partition when every replica serves a different slice of the partitions.
+     * A partition held by several replicas goes to the first of them.
+     */
+    public Map<String, String> getPartitionOwners() throws Exception {
+        String expr = "@[{string value x}; `.Q.pv; ()]";
+        Map<String, String> owners = new HashMap<>();
+        for (Replica replica : replicas) {
+            LOGGER.info("KDB query on " + replica.endpoint + ": " + expr);
+            // no failover, another replica does not have the same partitions
+            Object[] partitions = (Object[]) exec(replica, conn -> conn.k(expr));
+            for (Object partition : partitions) {
+                owners.putIfAbsent(new String((char[]) partition), replica.endpoint.toString());
+            }
+        }
+        return owners;
+    }
+
+    public List<ColumnMetadata> getTableMeta(KDBTableHandle handle) throws Exception {
         c.Dict res = (c.Dict) exec("meta "+handle.getQualifiedTableName());
         c.Flip columns = (c.Flip) res.x;
         c.Flip colMeta = (c.Flip) res.y;
-        String[] colNames = (String[]) columns.y[0];
-        char[] types = (char[]) colMeta.y[0];
-        String[] attributes = (String[]) colMeta.y[2];
+        return toColumnMetadata((String[]) columns.y[0], (char[]) colMeta.y[0], (String[]) colMeta.y[2], handle.isPartitioned());
+    }
+
+    /**
+     * Everything needed to resolve a table in one round trip: whether it is partitioned, its meta and, if partitioned, the partitions.
+     */
+    public TableDescription describeTable(String qualifiedTableName) throws Exception {
+        c.Dict res = (c.Dict) exec(DESCRIBE_TABLE + "[" + qualifiedTableName + "]");
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < ((String[]) res.x).length; i++) {
+            values.put(((String[]) res.x)[i], ((Object[]) res.y)[i]);
+        }
 
+        boolean isPartitioned = (boolean) values.get("partitioned");
+        List<ColumnMetadata> columns = toColumnMetadata((String[]) values.get("columns"), (char[]) values.get("types"), (String[]) values.get("attributes"), isPartitioned);
+        List<String> partitions = new ArrayList<>();
+        for (Object partition : (Object[]) values.get("partitions")) {
+            partitions.add(new String((char[]) partition));
+        }
+        // the partition column always comes first
+        Optional<KDBColumnHandle> partitionColumn = isPartitioned
+                ? Optional.of(new KDBColumnHandle((String) columns.get(0).getProperties().get("kdb.name"), columns.get(0).getType(), (KDBType) columns.get(0).getProperties().get("kdb.type"), Optional.empty(), true))
+                : Optional.empty();
+        return new TableDescription(columns, partitionColumn, partitions);
+    }
+
+    /**
+     * Columns of all tables in a namespace, keyed by table name, in one round trip.
+     */
+    public Map<String, List<ColumnMetadata>> getNamespaceMeta(String ns) throws Exception {
+        c.Flip res = (c.Flip) exec(DESCRIBE_NAMESPACE + "[`." + ns + "]");
+        String[] tables = (String[]) res.y[0];
+        if (tables.length == 0) {
+            // columns of an empty table come back as untyped lists
+            return Map.of();
+        }
+        boolean[] partitioned = (boolean[]) res.y[1];
+        Object[] columns = (Object[]) res.y[2];
+        Object[] types = (Object[]) res.y[3];
+        Object[] attributes = (Object[]) res.y[4];
+
+        Map<String, List<ColumnMetadata>> result = new LinkedHashMap<>();
+        for (int i = 0; i < tables.length; i++) {
+            result.put(tables[i], toColumnMetadata((String[]) columns[i], (char[]) types[i], (String[]) attributes[i], partitioned[i]));
+        }
+        return result;
+    }
+
+    static List<ColumnMetadata> toColumnMetadata(String[] colNames, char[] types, String[] attributes, boolean isPartitioned) {
         List<ColumnMetadata> result = new ArrayList<>();
         for (int i=0; i<colNames.length; i++) {
             KDBType kdbType = KDBType.fromTypeCode(types[i]);
@@ -162,26 +377,105 @@ public class KDBClient {
         return ImmutableList.copyOf(result);
     }
 
-    public Page getData(KDBTableHandle handle, List<KDBColumnHandle> columns, int page, int pageSize, boolean isVirtualTables) throws Exception {
+    public static class TableDescription {
+        private final List<ColumnMetadata> columns;
+        private final Optional<KDBColumnHandle> partitionColumn;
+        private final List<String> partitions;
+
+        public TableDescription(List<ColumnMetadata> columns, Optional<KDBColumnHandle> partitionColumn, List<String> partitions) {
+            this.columns = columns;
+            this.partitionColumn = partitionColumn;
+            this.partitions = partitions;
+        }
+
+        public List<ColumnMetadata> getColumns() {
+            return columns;
+        }
+
+        public Optional<KDBColumnHandle> getPartitionColumn() {
+            return partitionColumn;
+        }
+
+        public List<String> getPartitions() {
+            return partitions;
+        }
+    }
+
+    public Page getData(KDBTableHandle handle, List<KDBColumnHandle> columns, int page, int pageSize, boolean isVirtualTables, boolean directDecode, boolean symbolDictionary) throws Exception {
+        columns = getQueryColumns(columns);
+        Object res = exec(result(handle.toQuery(columns, OptionalInt.of(page), pageSize, isVirtualTables), directDecode));
+        return toPage(columns, res, symbolDictionary);
+    }
+
+    /**
+     * Run the query once, keep the full result on the KDB side under .trino.cursor and return its first page.
+     * The cursor is dropped by KDB as soon as a page comes back short.
+     */
+    public Page openCursor(String cursor, KDBTableHandle handle, List<KDBColumnHandle> columns, int pageSize, boolean isVirtualTables, boolean directDecode, boolean symbolDictionary) throws Exception {
+        columns = getQueryColumns(columns);
+        Object res = exec(CURSOR_NAMESPACE + "." + cursor + ":" + handle.toQuery(columns, OptionalInt.empty(), pageSize, isVirtualTables) + "; " + result(cursorFetchQuery(cursor, 0, pageSize), directDecode));
+        return toPage(columns, res, symbolDictionary);
+    }
+
+    public Page fetchCursor(String cursor, List<KDBColumnHandle> columns, int page, int pageSize, boolean directDecode, boolean symbolDictionary) throws Exception {
+        columns = getQueryColumns(columns);
+        Object res = exec(result(cursorFetchQuery(cursor, (long) page * pageSize, pageSize), directDecode));
+        return toPage(columns, res, symbolDictionary);
+    }
+
+    public void closeCursor(String cursor) throws Exception {
+        exec("delete " + cursor + " from `" + CURSOR_NAMESPACE);
+    }
+
+    private static String cursorFetchQuery(String cursor, long start, int pageSize) {
+        return "{[c;s;n] r:(s;n) sublist " + CURSOR_NAMESPACE + " c; if[n>count r; ![`" + CURSOR_NAMESPACE + ";();0b;enlist c]]; r}[`" + cursor + ";" + start + ";" + pageSize + "]";
+    }
+
+    private static List<KDBColumnHandle> getQueryColumns(List<KDBColumnHandle> columns) {
         // "select count(*) type use cases
         if (columns.isEmpty()) {
-            columns = List.of(new KDBColumnHandle("i", BigintType.BIGINT, KDBType.Long, null, false));
+            return List.of(new KDBColumnHandle("i", BigintType.BIGINT, KDBType.Long, null, false));
             // one more weird exception select date from <partitioned table> where date = <x> gives only a single row
         } else if (columns.size() == 1 && columns.get(0).isPartitionColumn()) {
-            columns = List.of(columns.get(0), new KDBColumnHandle("i", BigintType.BIGINT, KDBType.Long, null, false));
+            return List.of(columns.get(0), new KDBColumnHandle("i", BigintType.BIGINT, KDBType.Long, null, false));
         }
+        return columns;
+    }
 
-        c.Flip res = (c.Flip) exec(handle.toQuery(columns, OptionalInt.of(page), pageSize, isVirtualTables));
+    /**
+     * With direct decoding KDB sends the result serialized as a byte vector, which is decoded without building c.Flip.
+     */
+    private static String result(String expr, boolean directDecode) {
+        return directDecode ? "-8!" + expr : expr;
+    }
 
-        PageBuilder builder = new PageBuilder(columns.stream().map(col -> col.getType()).collect(Collectors.toList()));
+    static Page toPage(List<KDBColumnHandle> columns, Object res, boolean symbolDictionary) throws Exception {
+        if (res instanceof byte[]) {
+            byte[] message = (byte[]) res;
+            Optional<Page> page = KDBPageDecoder.decode(columns, message, symbolDictionary);
+            if (page.isPresent()) {
+                return page.get();
+            }
+            res = new c().deserialize(message);
+        }
+        return toPage(columns, (c.Flip) res, symbolDictionary);
+    }
 
-        builder.declarePositions(getArrayLength(columns.get(0).getType(), res.y[0]));
+    static Page toPage(List<KDBColumnHandle> columns, c.Flip res, boolean symbolDictionary) {
+        int positions = getArrayLength(columns.get(0).getType(), res.y[0]);
+        Block[] blocks = new Block[columns.size()];
         for (int i=0; i<columns.size(); i++) {
-            BlockBuilder bb = builder.getBlockBuilder(i);
-            columns.get(i).getKdbType().writeBlock(bb, res.y[i]);
+            KDBColumnHandle column = columns.get(i);
+            if (symbolDictionary && column.getKdbType() == KDBType.Symbol) {
+                blocks[i] = KDBType.toSymbolDictionary((String[]) res.y[i]);
+            } else {
+                BlockBuilder bb = column.getType().createBlockBuilder(null, positions);
+                column.getKdbType().writeBlock(bb, res.y[i]);
+                blocks[i] = bb.build();
+            }
         }
 
-        return builder.build();
+        return new Page(positions, blocks);
     }
 
     public void writeData(String table, List<KDBColumnHandle> columns, Page page, String insertFunction) throws Exception {
@@ -299,7 +593,7 @@ public class KDBClient {
                 (boolean) meta.getProperties().get("kdb.isPartitionColumn"));
     }
 
-    private int getArrayLength(Type t, Object array) {
+    private static int getArrayLength(Type t, Object array) {
         if (array instanceof Object[]) {
             return ((Object[]) array).length;
         } else if (array instanceof long[]) {
@@ -1,9 +1,12 @@
 package org.uwh.trino.kdb;
 
+import io.trino.spi.connector.ConnectorSession;
 import io.trino.spi.security.ConnectorIdentity;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -11,24 +14,37 @@ import java.util.concurrent.ConcurrentMap;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class KDBClientFactory {
-    private final String host;
-    private final int port;
+    private final List<KDBEndpoint> endpoints;
     private final String defaultUser;
     private final String defaultPassword;
     private final Optional<String> extraUserKey;
     private final Optional<String> extraPasswordKey;
+    private final int poolMaxSize;
+    private final long poolIdleTimeoutSeconds;
+    private final long poolWaitTimeoutSeconds;
 
     private final ConcurrentMap<String,KDBClient> clientCache;
 
     private final MessageDigest sha256;
 
     public KDBClientFactory(String host, int port, String user, String password, Optional<String> extraUserKey, Optional<String> extraPasswordKey) {
-        this.host = host;
-        this.port = port;
+        this(host, port, user, password, extraUserKey, extraPasswordKey,
+                Integer.parseInt(Config.DEFAULT_POOL_MAX_SIZE),
+                Long.parseLong(Config.DEFAULT_POOL_IDLE_TIMEOUT),
+                Long.parseLong(Config.DEFAULT_POOL_WAIT_TIMEOUT),
+                Integer.parseInt(Config.DEFAULT_MAX_IN_FLIGHT_REQUESTS));
+    }
+
+    public KDBClientFactory(String host, int port, String user, String password, Optional<String> extraUserKey, Optional<String> extraPasswordKey,
+                            int poolMaxSize, long poolIdleTimeoutSeconds, long poolWaitTimeoutSeconds, int maxInFlightRequests) {
+        this.endpoints = parseEndpoints(host, port, maxInFlightRequests, poolWaitTimeoutSeconds);
         this.defaultUser = user;
         this.defaultPassword = password;
         this.extraUserKey = extraUserKey;
         this.extraPasswordKey = extraPasswordKey;
+        this.poolMaxSize = poolMaxSize;
+        this.poolIdleTimeoutSeconds = poolIdleTimeoutSeconds;
+        this.poolWaitTimeoutSeconds = poolWaitTimeoutSeconds;
         this.clientCache = new ConcurrentHashMap<>();
         try {
             sha256 = MessageDigest.getInstance("SHA-256");
@@ -38,6 +54,14 @@ public class KDBClientFactory {
         }
     }
 
+    /**
+     * Client for requests made on behalf of a query, these take part in fair queuing for the KDB process.
+     */
+    public KDBClient getClient(ConnectorSession session) {
+        int priority = session.getProperty(Config.SESSION_REQUEST_PRIORITY, Integer.class);
+        return getClient(session.getIdentity()).withTicket(new KDBAdmissionController.Ticket(session.getQueryId(), session.getUser(), priority));
+    }
+
     public KDBClient getClient(ConnectorIdentity identity) {
         String finalUser = extraUserKey.flatMap(k -> Optional.ofNullable(identity.getExtraCredentials().get(k))).orElse(defaultUser);
         String finalPassword = extraPasswordKey.flatMap(k -> Optional.ofNullable(identity.getExtraCredentials().get(k))).orElse(defaultPassword);
@@ -48,16 +72,51 @@ public class KDBClientFactory {
         return getClient(defaultUser, defaultPassword);
     }
 
+    public List<KDBEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
     private KDBClient getClient(String user, String password) {
+        // one connection pool per (replica, credential), but load tracking and admission control per replica
+        // since all credentials share the same q process
         return clientCache.computeIfAbsent(hash(user+":"+password), k -> {
-            try {
-                return new KDBClient(host, port, user, password);
-            } catch (Exception e) {
-                throw new RuntimeException("Could not establish KDB connection", e);
+            List<KDBClient.Replica> replicas = new ArrayList<>();
+            for (KDBEndpoint endpoint : endpoints) {
+                replicas.add(new KDBClient.Replica(
+                        new KDBConnectionPool(endpoint.getHost(), endpoint.getPort(), user, password, poolMaxSize, poolIdleTimeoutSeconds, poolWaitTimeoutSeconds),
+                        endpoint));
             }
+            return new KDBClient(replicas, KDBAdmissionController.Ticket.UNTRACKED);
         });
     }
 
+    /**
+     * Parse a comma separated list of host or host:port replicas, port defaults to the catalog port.
+     */
+    static List<KDBEndpoint> parseEndpoints(String hosts, int defaultPort, int maxInFlightRequests, long waitTimeoutSeconds) {
+        List<KDBEndpoint> endpoints = new ArrayList<>();
+        for (String host : hosts.split(",")) {
+            host = host.trim();
+            if (host.isEmpty()) {
+                continue;
+            }
+            int idx = host.lastIndexOf(':');
+            if (idx >= 0) {
+                endpoints.add(new KDBEndpoint(host.substring(0, idx), Integer.parseInt(host.substring(idx + 1)), maxInFlightRequests, waitTimeoutSeconds));
+            } else {
+                endpoints.add(new KDBEndpoint(host, defaultPort, maxInFlightRequests, waitTimeoutSeconds));
+            }
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No KDB host configured");
+        }
+        return List.copyOf(endpoints);
+    }
+
+    public void close() {
+        clientCache.values().forEach(KDBClient::close);
+    }
+
     private synchronized String hash(String value)
     {
         return new String(sha256.digest(value.getBytes(UTF_8)));
@@ -14,6 +14,12 @@ public class KDBColumnHandle implements ColumnHandle {
     private final KDBType kdbType;
     private final Optional<KDBAttribute> attribute;
     private final boolean isPartitionColumn;
+    // q expression for columns derived from others by projection push down
+    private final Optional<String> expression;
+
+    public KDBColumnHandle(String name, Type type, KDBType kdbType, Optional<KDBAttribute> attribute, boolean isPartitionColumn) {
+        this(name, type, kdbType, attribute, isPartitionColumn, Optional.empty());
+    }
 
     @JsonCreator
     public KDBColumnHandle(
@@ -21,12 +27,14 @@ public class KDBColumnHandle implements ColumnHandle {
             @JsonProperty("type") Type type,
             @JsonProperty("kdbType") KDBType kdbType,
             @JsonProperty("attribute") Optional<KDBAttribute> attribute,
-            @JsonProperty("isPartitionColumn") boolean isPartitionColumn) {
+            @JsonProperty("isPartitionColumn") boolean isPartitionColumn,
+            @JsonProperty("expression") Optional<String> expression) {
         this.name = name;
         this.type = type;
         this.kdbType = kdbType;
         this.attribute = attribute;
         this.isPartitionColumn = isPartitionColumn;
+        this.expression = expression;
     }
 
     @JsonProperty
@@ -52,6 +60,25 @@ public class KDBColumnHandle implements ColumnHandle {
         return isPartitionColumn;
     }
 
+    @JsonProperty
+    public Optional<String> getExpression() {
+        return expression;
+    }
+
+    /**
+     * The column's value in a q query, the column name or for derived columns their expression.
+     */
+    public String getQueryExpression() {
+        return expression.orElse(name);
+    }
+
+    /**
+     * The column as an entry of a select list.
+     */
+    public String getSelectExpression() {
+        return expression.map(expr -> name + ": " + expr).orElse(name);
+    }
+
     /* Equality by column name */
 
     @Override
@@ -74,6 +101,7 @@ public class KDBColumnHandle implements ColumnHandle {
                 ", type=" + type +
                 ", kdbType=" + kdbType +
                 ", attribute=" + attribute +
+                expression.map(expr -> ", expression=" + expr).orElse("") +
                 '}';
     }
 }
@@ -0,0 +1,206 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.airlift.log.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of KDB connections for a single (host, port, credential) combination.
+ * A kx.c connection can only serve one request at a time, so every request checks out its own connection
+ * and returns it once the response has been read.
+ */
+public class KDBConnectionPool {
+    private static final Logger LOGGER = Logger.get(KDBConnectionPool.class);
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final long waitTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    // idle plus checked out connections
+    private int openConnections = 0;
+    private boolean closed = false;
+
+    public KDBConnectionPool(String host, int port, String user, String password, int maxSize, long idleTimeoutSeconds, long waitTimeoutSeconds) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Connection pool size must be positive: " + maxSize);
+        }
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        this.waitTimeoutNanos = TimeUnit.SECONDS.toNanos(waitTimeoutSeconds);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public c borrow() throws Exception {
+        lock.lock();
+        try {
+            evictIdle();
+            long remaining = waitTimeoutNanos;
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Connection pool for " + host + ":" + port + " is closed");
+                }
+                if (!idle.isEmpty()) {
+                    // most recently used first, so that surplus connections age out
+                    return idle.pollFirst().connection;
+                }
+                if (openConnections < maxSize) {
+                    openConnections++;
+                    break;
+                }
+                if (remaining <= 0) {
+                    throw new TimeoutException("Timed out waiting for a KDB connection to " + host + ":" + port + " (pool size " + maxSize + ")");
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // connect outside of the lock, this can take a while
+        try {
+            return connect();
+        } catch (Exception e) {
+            discarded();
+            throw e;
+        }
+    }
+
+    public void release(c connection) {
+        lock.lock();
+        try {
+            if (closed) {
+                openConnections--;
+                closeQuietly(connection);
+            } else {
+                idle.addFirst(new IdleConnection(connection, System.nanoTime()));
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop a connection that is no longer usable, for example because the KDB process restarted.
+     * Idle connections were most likely broken by the same event, so they are dropped as well.
+     */
+    public void invalidate(c connection) {
+        closeQuietly(connection);
+        lock.lock();
+        try {
+            openConnections--;
+            while (!idle.isEmpty()) {
+                closeQuietly(idle.pollFirst().connection);
+                openConnections--;
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (!idle.isEmpty()) {
+                closeQuietly(idle.pollFirst().connection);
+                openConnections--;
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getOpenConnections() {
+        lock.lock();
+        try {
+            return openConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void discarded() {
+        lock.lock();
+        try {
+            openConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // must hold lock
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<IdleConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            IdleConnection conn = it.next();
+            if (now - conn.since < idleTimeoutNanos) {
+                // remaining connections were used more recently
+                break;
+            }
+            it.remove();
+            openConnections--;
+            closeQuietly(conn.connection);
+        }
+    }
+
+    private c connect() throws Exception {
+        if (user != null && password != null) {
+            return new c(host, port, user + ":" + password);
+        } else {
+            return new c(host, port);
+        }
+    }
+
+    private static void closeQuietly(c connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOGGER.debug(e, "Failed to close KDB connection");
+        }
+    }
+
+    private static class IdleConnection {
+        private final c connection;
+        private final long since;
+
+        IdleConnection(c connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.uwh.trino.kdb;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.trino.spi.NodeManager;
 import io.trino.spi.connector.*;
 import io.trino.spi.ptf.ConnectorTableFunction;
 import io.trino.spi.session.PropertyMetadata;
@@ -8,6 +10,8 @@ import io.trino.spi.transaction.IsolationLevel;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class KDBConnector implements Connector {
 
@@ -17,13 +21,18 @@ public class KDBConnector implements Connector {
 
     private final KDBClientFactory factory;
     private final Config config;
+    private final NodeManager nodeManager;
     private final StatsManager statsManager;
     private final KDBMetadata metadata;
+    // background page fetches, the threads spend their time waiting on KDB
+    private final ExecutorService fetchExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kdb-page-fetch-%s").build());
 
-    public KDBConnector(KDBClientFactory factory, Config config) {
+    public KDBConnector(KDBClientFactory factory, Config config, NodeManager nodeManager) {
         this.factory = factory;
         this.config = config;
-        this.statsManager = new StatsManager(factory);
+        this.nodeManager = nodeManager;
+        this.statsManager = new StatsManager(factory, config);
         this.metadata = new KDBMetadata(factory, config, statsManager);
     }
 
@@ -34,7 +43,7 @@ public class KDBConnector implements Connector {
 
     @Override
     public Set<ConnectorTableFunction> getTableFunctions() {
-        return Set.of(new QueryFunction(factory, metadata));
+        return Set.of(new QueryFunction(factory, metadata), new AsofJoinFunction(metadata));
     }
 
     @Override
@@ -49,16 +58,24 @@ public class KDBConnector implements Connector {
 
     @Override
     public ConnectorSplitManager getSplitManager() {
-        return new KDBSplitManager();
+        return new KDBSplitManager(factory, nodeManager, config.getSplitAffinityWorkers(), config.useSplitAffinitySlices());
     }
 
     @Override
     public ConnectorPageSourceProvider getPageSourceProvider() {
-        return new KDBPageSourceProvider(factory, config);
+        return new KDBPageSourceProvider(factory, config, fetchExecutor);
     }
 
     @Override
     public ConnectorPageSinkProvider getPageSinkProvider() {
         return new KDBPageSinkProvider(factory, config);
     }
+
+    @Override
+    public void shutdown() {
+        fetchExecutor.shutdownNow();
+        metadata.shutdown();
+        statsManager.shutdown();
+        factory.close();
+    }
 }
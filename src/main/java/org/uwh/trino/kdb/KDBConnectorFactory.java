@@ -23,8 +23,12 @@ public class KDBConnectorFactory implements ConnectorFactory {
                     cfg.getUser(),
                     cfg.getPassword(),
                     cfg.getExtraCredentialUser(),
-                    cfg.getExtraCredentialPassword());
-            return new KDBConnector(factory, cfg);
+                    cfg.getExtraCredentialPassword(),
+                    cfg.getPoolMaxSize(),
+                    cfg.getPoolIdleTimeout(),
+                    cfg.getPoolWaitTimeout(),
+                    cfg.getMaxInFlightRequests());
+            return new KDBConnector(factory, cfg, context.getNodeManager());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,86 @@
+package org.uwh.trino.kdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single q process serving a catalog, shared by all credentials. Tracks the load and health that replica selection is based on.
+ */
+public class KDBEndpoint {
+    // how long a replica that dropped connections is avoided before it is tried again
+    private static final long DOWN_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // weight of the latest request in the latency average
+    private static final double LATENCY_DECAY = 0.2;
+
+    private final String host;
+    private final int port;
+    private final KDBAdmissionController admission;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile double latencyNanos = 0;
+    private volatile long downUntil = 0;
+    private volatile boolean down = false;
+
+    public KDBEndpoint(String host, int port, int maxInFlightRequests, long waitTimeoutSeconds) {
+        this.host = host;
+        this.port = port;
+        this.admission = new KDBAdmissionController(host + ":" + port, maxInFlightRequests, waitTimeoutSeconds);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public KDBAdmissionController getAdmission() {
+        return admission;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getLatencyNanos() {
+        return (long) latencyNanos;
+    }
+
+    public boolean isHealthy() {
+        return !down || System.nanoTime() - downUntil > 0;
+    }
+
+    /**
+     * Expected cost of sending one more request here, the requests ahead of it times how long requests recently took.
+     * Replicas without history come first so that every replica gets tried.
+     */
+    public double getLoad() {
+        return (outstanding.get() + 1) * Math.max(latencyNanos, 1);
+    }
+
+    long begin() {
+        outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void end(long start, boolean succeeded) {
+        outstanding.decrementAndGet();
+        if (succeeded) {
+            long elapsed = System.nanoTime() - start;
+            double current = latencyNanos;
+            latencyNanos = current == 0 ? elapsed : current + LATENCY_DECAY * (elapsed - current);
+            down = false;
+        }
+    }
+
+    void markDown() {
+        downUntil = System.nanoTime() + DOWN_NANOS;
+        down = true;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
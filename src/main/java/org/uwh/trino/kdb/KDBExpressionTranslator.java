@@ -0,0 +1,265 @@
+package org.uwh.trino.kdb;
+
+import io.airlift.slice.Slice;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.expression.Call;
+import io.trino.spi.expression.ConnectorExpression;
+import io.trino.spi.expression.Constant;
+import io.trino.spi.expression.FunctionName;
+import io.trino.spi.expression.Variable;
+import io.trino.spi.type.BigintType;
+import io.trino.spi.type.BooleanType;
+import io.trino.spi.type.DateType;
+import io.trino.spi.type.DoubleType;
+import io.trino.spi.type.IntegerType;
+import io.trino.spi.type.Type;
+import io.trino.spi.type.VarcharType;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static io.trino.spi.expression.StandardFunctions.*;
+
+/**
+ * Translates Trino expressions into q, for the subset of functions where q gives the same result including for nulls.
+ * Integer arithmetic is left out as q does not carry integer nulls through it and wraps on overflow, where Trino
+ * returns null or fails. Floating point functions that return NaN in Trino, such as 0/0 or sqrt(-1), are left out
+ * as q returns its float null instead. Anything producing a string from a non-string, symbols included, is left out
+ * as KDB strings cannot be null.
+ * Every translated expression is wrapped in parentheses since q evaluates right to left.
+ */
+public class KDBExpressionTranslator {
+    private static final Set<KDBType> FLOATING = Set.of(KDBType.Float, KDBType.Real);
+    private static final Set<KDBType> NUMERIC = Set.of(KDBType.Long, KDBType.Int, KDBType.Float, KDBType.Real);
+    private static final Set<KDBType> TEMPORAL = Set.of(KDBType.Date, KDBType.Timestamp, KDBType.DateTime);
+    private static final Set<KDBType> TEXT = Set.of(KDBType.String, KDBType.Symbol);
+
+    private static final Map<String, String> DATE_PARTS = Map.of(
+            "year", "year",
+            "month", "mm",
+            "day", "dd",
+            "day_of_month", "dd");
+    private static final Map<String, String> TIME_PARTS = Map.of(
+            "hour", "hh",
+            "minute", "uu",
+            "second", "ss");
+
+    private KDBExpressionTranslator() {}
+
+    /**
+     * A translated expression and the KDB type of its result.
+     */
+    public static class Translation {
+        private final String expression;
+        private final KDBType type;
+        private final boolean constant;
+
+        Translation(String expression, KDBType type, boolean constant) {
+            this.expression = expression;
+            this.type = type;
+            this.constant = constant;
+        }
+
+        public String getExpression() {
+            return expression;
+        }
+
+        public KDBType getType() {
+            return type;
+        }
+    }
+
+    public static Optional<Translation> translate(ConnectorExpression expression, Map<String, ColumnHandle> assignments) {
+        Optional<Translation> result = doTranslate(expression, assignments);
+        // the result is read as a column of the type Trino expects
+        return result.filter(t -> !t.constant && t.type.getTrinoType().equals(expression.getType()));
+    }
+
+    private static Optional<Translation> doTranslate(ConnectorExpression expression, Map<String, ColumnHandle> assignments) {
+        if (expression instanceof Variable) {
+            KDBColumnHandle column = (KDBColumnHandle) assignments.get(((Variable) expression).getName());
+            if (column == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new Translation(column.getQueryExpression(), column.getKdbType(), false));
+        } else if (expression instanceof Constant) {
+            return translateConstant((Constant) expression);
+        } else if (expression instanceof Call) {
+            Call call = (Call) expression;
+            List<Translation> args = new ArrayList<>();
+            for (ConnectorExpression arg : call.getArguments()) {
+                Optional<Translation> translated = doTranslate(arg, assignments);
+                if (translated.isEmpty()) {
+                    return Optional.empty();
+                }
+                args.add(translated.get());
+            }
+            return translateCall(call, args);
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<Translation> translateConstant(Constant constant) {
+        Object value = constant.getValue();
+        Type type = constant.getType();
+        if (value == null) {
+            return Optional.empty();
+        } else if (type == BigintType.BIGINT) {
+            return Optional.of(new Translation(number(value.toString()), KDBType.Long, true));
+        } else if (type == IntegerType.INTEGER) {
+            return Optional.of(new Translation(number(value + "i"), KDBType.Int, true));
+        } else if (type == DoubleType.DOUBLE) {
+            double d = (double) value;
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return Optional.empty();
+            }
+            return Optional.of(new Translation(number(BigDecimal.valueOf(d).toPlainString() + "f"), KDBType.Float, true));
+        } else if (type == BooleanType.BOOLEAN) {
+            return Optional.of(new Translation((boolean) value ? "1b" : "0b", KDBType.Boolean, true));
+        } else if (type == DateType.DATE) {
+            return Optional.of(new Translation(LocalDate.ofEpochDay((long) value).format(DateTimeFormatter.ofPattern("yyyy.MM.dd")), KDBType.Date, true));
+        } else if (type instanceof VarcharType) {
+            String s = ((Slice) value).toStringUtf8().replace("\\", "\\\\").replace("\"", "\\\"");
+            return Optional.of(new Translation(s.length() == 1 ? "(enlist \"" + s + "\")" : "\"" + s + "\"", KDBType.String, true));
+        }
+        return Optional.empty();
+    }
+
+    // negative numbers in parentheses, so that a minus in front of them is not read as part of the literal
+    private static String number(String literal) {
+        return literal.startsWith("-") ? "(" + literal + ")" : literal;
+    }
+
+    private static Optional<Translation> translateCall(Call call, List<Translation> args) {
+        FunctionName name = call.getFunctionName();
+        if (name.getCatalogSchema().isPresent()) {
+            return Optional.empty();
+        }
+
+        if (args.size() == 2 && (name.equals(ADD_FUNCTION_NAME) || name.equals(SUBTRACT_FUNCTION_NAME) || name.equals(MULTIPLY_FUNCTION_NAME))) {
+            return arithmetic(name.equals(ADD_FUNCTION_NAME) ? "+" : name.equals(SUBTRACT_FUNCTION_NAME) ? "-" : "*", args.get(0), args.get(1));
+        } else if (args.size() == 1 && name.equals(NEGATE_FUNCTION_NAME) && FLOATING.contains(args.get(0).type)) {
+            return Optional.of(derived("(neg " + args.get(0).expression + ")", args.get(0).type, args));
+        } else if (args.size() == 1 && name.equals(IS_NULL_FUNCTION_NAME) && (NUMERIC.contains(args.get(0).type) || TEMPORAL.contains(args.get(0).type))) {
+            return Optional.of(derived("(null " + args.get(0).expression + ")", KDBType.Boolean, args));
+        } else if (args.size() == 1 && name.equals(CAST_FUNCTION_NAME)) {
+            return cast(args.get(0), call.getType());
+        }
+
+        if (args.isEmpty()) {
+            return Optional.empty();
+        }
+        String function = name.getName();
+        Translation arg = args.get(0);
+        switch (function) {
+            case "abs":
+                return args.size() == 1 && FLOATING.contains(arg.type) ? Optional.of(derived("(abs " + arg.expression + ")", arg.type, args)) : Optional.empty();
+            case "ceil":
+            case "ceiling":
+                return args.size() == 1 && FLOATING.contains(arg.type) ? Optional.of(derived("(`float$ceiling " + arg.expression + ")", KDBType.Float, args)) : Optional.empty();
+            case "floor":
+                return args.size() == 1 && FLOATING.contains(arg.type) ? Optional.of(derived("(`float$floor " + arg.expression + ")", KDBType.Float, args)) : Optional.empty();
+            case "exp":
+                return args.size() == 1 && FLOATING.contains(arg.type) ? Optional.of(derived("(exp " + arg.expression + ")", KDBType.Float, args)) : Optional.empty();
+            case "lower":
+            case "upper":
+                return args.size() == 1 && TEXT.contains(arg.type) ? Optional.of(derived("(" + function + " " + arg.expression + ")", arg.type, args)) : Optional.empty();
+            case "trim":
+            case "ltrim":
+            case "rtrim":
+                if (args.size() != 1 || !TEXT.contains(arg.type)) {
+                    return Optional.empty();
+                }
+                return Optional.of(arg.type == KDBType.Symbol
+                        ? derived("(`$" + function + " string " + arg.expression + ")", KDBType.Symbol, args)
+                        : derived("(" + function + " " + arg.expression + ")", KDBType.String, args));
+            case "length":
+                return args.size() == 1 && arg.type == KDBType.String ? Optional.of(derived("(count each " + arg.expression + ")", KDBType.Long, args)) : Optional.empty();
+            case "substr":
+            case "substring":
+                return substring(args);
+            case "concat":
+                return concat(args);
+            default:
+                if (args.size() == 1 && TEMPORAL.contains(arg.type) && DATE_PARTS.containsKey(function)) {
+                    return Optional.of(derived("(`long$`" + DATE_PARTS.get(function) + "$" + arg.expression + ")", KDBType.Long, args));
+                } else if (args.size() == 1 && (arg.type == KDBType.Timestamp || arg.type == KDBType.DateTime || arg.type == KDBType.Time) && TIME_PARTS.containsKey(function)) {
+                    return Optional.of(derived("(`long$`" + TIME_PARTS.get(function) + "$" + arg.expression + ")", KDBType.Long, args));
+                }
+                return Optional.empty();
+        }
+    }
+
+    private static Optional<Translation> arithmetic(String operator, Translation left, Translation right) {
+        if (!FLOATING.contains(left.type) || !FLOATING.contains(right.type)) {
+            return Optional.empty();
+        }
+        KDBType type = left.type == KDBType.Real && right.type == KDBType.Real ? KDBType.Real : KDBType.Float;
+        return Optional.of(derived("(" + left.expression + operator + right.expression + ")", type, List.of(left, right)));
+    }
+
+    private static Optional<Translation> cast(Translation arg, Type target) {
+        if (target == BigintType.BIGINT && (arg.type == KDBType.Int || arg.type == KDBType.Short || arg.type == KDBType.Byte)) {
+            return Optional.of(derived("(`long$" + arg.expression + ")", KDBType.Long, List.of(arg)));
+        } else if (target == IntegerType.INTEGER && (arg.type == KDBType.Short || arg.type == KDBType.Byte)) {
+            return Optional.of(derived("(`int$" + arg.expression + ")", KDBType.Int, List.of(arg)));
+        } else if (target == DoubleType.DOUBLE && (NUMERIC.contains(arg.type) || arg.type == KDBType.Short || arg.type == KDBType.Byte)) {
+            return Optional.of(derived("(`float$" + arg.expression + ")", KDBType.Float, List.of(arg)));
+        } else if (target == DateType.DATE && (arg.type == KDBType.Timestamp || arg.type == KDBType.DateTime)) {
+            return Optional.of(derived("(`date$" + arg.expression + ")", KDBType.Date, List.of(arg)));
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<Translation> substring(List<Translation> args) {
+        // strings only, a null symbol would come out as an empty string
+        if (args.size() < 2 || args.size() > 3 || args.get(0).type != KDBType.String || args.get(0).constant) {
+            return Optional.empty();
+        }
+        // only constant, positive start positions and lengths, as negative ones count from the end in Trino
+        long start = positiveConstant(args.get(1));
+        long length = args.size() == 3 ? positiveConstant(args.get(2)) : Long.MAX_VALUE;
+        if (start < 1 || length < 0) {
+            return Optional.empty();
+        }
+        String expression = args.size() == 3
+                ? "((" + (start - 1) + ";" + length + ") sublist/: " + args.get(0).expression + ")"
+                : "(" + (start - 1) + " _/: " + args.get(0).expression + ")";
+        return Optional.of(new Translation(expression, KDBType.String, false));
+    }
+
+    private static long positiveConstant(Translation arg) {
+        if (!arg.constant || arg.type != KDBType.Long) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(arg.expression);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Optional<Translation> concat(List<Translation> args) {
+        if (args.size() != 2 || !args.stream().allMatch(arg -> arg.type == KDBType.String)) {
+            return Optional.empty();
+        }
+        Translation left = args.get(0);
+        Translation right = args.get(1);
+        if (left.constant && right.constant) {
+            return Optional.empty();
+        }
+        // a constant joins every row, two columns join row by row
+        String join = left.constant ? ",/:" : right.constant ? ",\\:" : ",'";
+        return Optional.of(new Translation("(" + left.expression + join + right.expression + ")", KDBType.String, false));
+    }
+
+    private static Translation derived(String expression, KDBType type, List<Translation> args) {
+        return new Translation(expression, type, args.stream().allMatch(arg -> arg.constant));
+    }
+}
@@ -24,7 +24,7 @@ public class KDBFilter {
     }
 
     public String toKDBFilter() {
-        return column.getName() + " like \"" + sqlToKdbPattern(pattern) + "\"";
+        return column.getQueryExpression() + " like \"" + sqlToKdbPattern(pattern) + "\"";
     }
 
     private static String sqlToKdbPattern(String pattern) {
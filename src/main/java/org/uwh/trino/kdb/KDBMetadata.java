@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableMap;
 import io.airlift.log.Logger;
 import io.airlift.slice.Slice;
 import io.trino.spi.connector.*;
+import io.trino.spi.expression.Call;
 import io.trino.spi.expression.ConnectorExpression;
 import io.trino.spi.expression.Variable;
 import io.trino.spi.predicate.Domain;
@@ -14,6 +15,9 @@ import io.trino.spi.predicate.TupleDomain;
 import io.trino.spi.ptf.ConnectorTableFunctionHandle;
 import io.trino.spi.statistics.ComputedStatistics;
 import io.trino.spi.statistics.TableStatistics;
+import io.trino.spi.type.BigintType;
+import io.trino.spi.type.BooleanType;
+import io.trino.spi.type.DoubleType;
 import io.trino.sql.planner.LayoutConstraintEvaluator;
 import io.trino.sql.tree.LikePredicate;
 import io.trino.sql.tree.StringLiteral;
@@ -22,48 +26,116 @@ import io.trino.sql.tree.SymbolReference;
 import javax.annotation.Nullable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.util.Objects.requireNonNull;
 
 public class KDBMetadata implements ConnectorMetadata {
     private static final Logger LOGGER = Logger.get(KDBMetadata.class);
-    private static final String SCHEMA_NAME = "default";
+    static final String SCHEMA_NAME = "default";
     private static final String DEFAULT_NS = "";
     private final KDBClientFactory factory;
     private final StatsManager stats;
     private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-    private final Map<String,String> schemaMetadataCache = new HashMap<>();
-    private final Map<SchemaTableName,String> tableMetadataCache = new HashMap<>();
+    // replaced as a whole on refresh, so planning threads never see a partially updated view
+    private final AtomicReference<NameSnapshot> names = new AtomicReference<>(NameSnapshot.EMPTY);
     private final Cache<String,List<ColumnMetadata>> columnMetadataCache;
+    private final KDBPartitionDirectory partitionDirectory;
+    private final Optional<Path> snapshotFile;
+    // partitions are sliced over the endpoints, a single q query only sees some of them
+    private final boolean slices;
+    // columns loaded from a snapshot are checked against KDB on the first refresh
+    private volatile boolean revalidateColumns = false;
 
     public KDBMetadata(KDBClientFactory factory, Config config, StatsManager stats) {
         this.factory = factory;
         this.stats = stats;
-        executor.scheduleAtFixedRate(this::refreshMetadata, 0, config.getMetadataRefreshInterval(), TimeUnit.SECONDS);
         columnMetadataCache = CacheBuilder.newBuilder().expireAfterWrite(config.getMetadataRefreshInterval(), TimeUnit.SECONDS).build();
+        partitionDirectory = new KDBPartitionDirectory(config.getMetadataRefreshInterval());
+        snapshotFile = config.getMetadataSnapshotFile().map(Path::of);
+        slices = config.useSplitAffinitySlices();
+        snapshotFile.flatMap(KDBMetadataSnapshot::read).ifPresent(this::loadSnapshot);
+        executor.scheduleAtFixedRate(this::refreshMetadata, 0, config.getMetadataRefreshInterval(), TimeUnit.SECONDS);
     }
 
     private void refreshMetadata() {
         KDBClient client = factory.getDefaultClient();
         try {
-            client.listNamespaces().forEach(ns -> {
-                schemaMetadataCache.put(ns.toLowerCase(Locale.ENGLISH), ns);
-            });
-            client.listTables().forEach(st -> {
-                tableMetadataCache.put(new SchemaTableName(resolveSchema(st[0]), st[1]), st[1]);
-            });
+            Map<String,String> schemas = new HashMap<>();
+            client.listNamespaces().forEach(ns -> schemas.put(ns.toLowerCase(Locale.ENGLISH), ns));
+            Map<SchemaTableName,String> tables = new HashMap<>();
+            client.listTables().forEach(st -> tables.put(new SchemaTableName(resolveSchema(st[0]), st[1]), st[1]));
+            names.set(new NameSnapshot(schemas, tables));
+
+            if (revalidateColumns) {
+                for (String ns : schemas.values()) {
+                    client.getNamespaceMeta(ns).forEach((table, columns) -> columnMetadataCache.put(ns.equals(DEFAULT_NS) ? table : "." + ns + "." + table, columns));
+                }
+                revalidateColumns = false;
+            }
         } catch (Exception e) {
-            LOGGER.warn(e, "Failed to refresh KDB metadata from instance: " + client.getHost() + ":" + client.getPort());
+            LOGGER.warn(e, "Failed to refresh KDB metadata from instance: " + client.getEndpoints());
+        }
+        saveSnapshot();
+    }
+
+    private void loadSnapshot(KDBMetadataSnapshot snapshot) {
+        names.set(new NameSnapshot(snapshot.getSchemas(), snapshot.getTables()));
+        partitionDirectory.seed(snapshot.getDescriptions());
+        columnMetadataCache.putAll(snapshot.getColumns());
+        for (KDBMetadataSnapshot.TableStats table : snapshot.getStats()) {
+            Optional<KDBClient.TableDescription> description = Optional.ofNullable(snapshot.getDescriptions().get(
+                    table.getNamespace().equals(DEFAULT_NS) ? table.getTableName() : "." + table.getNamespace() + "." + table.getTableName()));
+            Optional<KDBColumnHandle> partitionColumn = description.flatMap(KDBClient.TableDescription::getPartitionColumn);
+            KDBTableHandle handle = new KDBTableHandle(table.getNamespace(), table.getTableName(), TupleDomain.all(), OptionalLong.empty(), partitionColumn.isPresent(), partitionColumn,
+                    description.map(KDBClient.TableDescription::getPartitions).orElse(List.of()), List.of(), Optional.empty());
+            stats.seed(handle, table.isCalcStatsOnTheFly(), table.getStatistics());
         }
+        revalidateColumns = true;
+        LOGGER.info("Loaded metadata snapshot with " + snapshot.getTables().size() + " tables from " + snapshotFile.get());
+    }
+
+    // called from the refresh thread and on shutdown
+    private synchronized void saveSnapshot() {
+        if (snapshotFile.isEmpty()) {
+            return;
+        }
+        NameSnapshot current = names.get();
+        try {
+            new KDBMetadataSnapshot(current.schemas, current.tables, partitionDirectory.export(), columnMetadataCache.asMap(), stats.export()).write(snapshotFile.get());
+        } catch (Exception e) {
+            LOGGER.warn(e, "Failed to save metadata snapshot to " + snapshotFile.get());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            // let a running refresh finish its snapshot, so the final one is not overwritten with older data
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveSnapshot();
     }
 
     List<ColumnMetadata> getColumns(ConnectorSession session, KDBTableHandle handle) {
         try {
-            return columnMetadataCache.get(handle.getQualifiedTableName(), () -> factory.getClient(session.getIdentity()).getTableMeta(handle));
+            // resolving the table handle usually fetched the columns already
+            return columnMetadataCache.get(handle.getQualifiedTableName(), () -> partitionDirectory.getColumns(handle.getQualifiedTableName())
+                    .orElseGet(() -> {
+                        try {
+                            return factory.getClient(session).getTableMeta(handle);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }));
         } catch (ExecutionException e) {
             LOGGER.error("Could not retrieve metadata for table "+handle.getQualifiedTableName());
             throw new RuntimeException(e);
@@ -72,7 +144,7 @@ public class KDBMetadata implements ConnectorMetadata {
 
     @Override
     public List<String> listSchemaNames(ConnectorSession session) {
-        return schemaMetadataCache.keySet().stream().map(s -> s.isEmpty() ? SCHEMA_NAME : s).collect(Collectors.toList());
+        return names.get().schemas.keySet().stream().map(s -> s.isEmpty() ? SCHEMA_NAME : s).collect(Collectors.toList());
     }
 
     @Override
@@ -80,7 +152,7 @@ public class KDBMetadata implements ConnectorMetadata {
         try {
             String ns = resolveKDBNamespace(schemaName);
             final String schema = resolveSchema(ns);
-            return factory.getClient(session.getIdentity()).listTables(ns).stream().map(t -> new SchemaTableName(schema, t)).collect(Collectors.toUnmodifiableList());
+            return factory.getClient(session).listTables(ns).stream().map(t -> new SchemaTableName(schema, t)).collect(Collectors.toUnmodifiableList());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -97,14 +169,14 @@ public class KDBMetadata implements ConnectorMetadata {
     private String resolveKDBNamespace(Optional<String> schemaName) {
         String ns = DEFAULT_NS;
         if (schemaName.isPresent() && !schemaName.get().equals(SCHEMA_NAME)) {
-            ns = schemaMetadataCache.getOrDefault(schemaName.get(), schemaName.get());
+            ns = names.get().schemas.getOrDefault(schemaName.get(), schemaName.get());
         }
         return ns;
     }
 
     private List<SchemaTableName> listTables(ConnectorSession session, SchemaTablePrefix prefix) {
         try {
-            return factory.getClient(session.getIdentity())
+            return factory.getClient(session)
                     .listTables()
                     .stream()
                     .filter(t -> prefix.getTable().stream().allMatch(tname -> tname.equals(t[1])))
@@ -120,12 +192,32 @@ public class KDBMetadata implements ConnectorMetadata {
     public Map<SchemaTableName, List<ColumnMetadata>> listTableColumns(ConnectorSession session, SchemaTablePrefix prefix) {
         requireNonNull(prefix, "prefix is null");
         ImmutableMap.Builder<SchemaTableName, List<ColumnMetadata>> columns = ImmutableMap.builder();
-        for (SchemaTableName tableName : listTables(session, prefix)) {
-            try {
+        if (prefix.getTable().isPresent()) {
+            for (SchemaTableName tableName : listTables(session, prefix)) {
                 columns.put(tableName, getColumns(session, (KDBTableHandle) getTableHandle(session, tableName)));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
             }
+            return columns.build();
+        }
+
+        // fetch the columns of each namespace in one go rather than resolving every table
+        try {
+            KDBClient client = factory.getClient(session);
+            Map<SchemaTableName,String> tables = new HashMap<>();
+            Set<String> namespaces = client.listTables().stream()
+                    .map(t -> t[0])
+                    .filter(ns -> prefix.getSchema().stream().allMatch(sname -> sname.equals(resolveSchema(ns))))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            for (String ns : namespaces) {
+                for (Map.Entry<String, List<ColumnMetadata>> table : client.getNamespaceMeta(ns).entrySet()) {
+                    columnMetadataCache.put(ns.equals(DEFAULT_NS) ? table.getKey() : "." + ns + "." + table.getKey(), table.getValue());
+                    SchemaTableName tableName = new SchemaTableName(resolveSchema(ns), table.getKey());
+                    tables.put(tableName, table.getKey());
+                    columns.put(tableName, table.getValue());
+                }
+            }
+            names.updateAndGet(snapshot -> snapshot.withTables(tables));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
         return columns.build();
     }
@@ -136,16 +228,13 @@ public class KDBMetadata implements ConnectorMetadata {
         try {
             String tName = tableName.getTableName();
             // Retrieve original capitalization since KDB is case sensitive
-            if (tableMetadataCache.containsKey(tableName)) {
-                tName = tableMetadataCache.get(tableName);
-            }
+            tName = names.get().tables.getOrDefault(tableName, tName);
 
             if (KDBTableHandle.isQuery(tName) && tName.contains("\\")) {
                 tName = unescapeDynamicQuery(tName);
             }
 
-            return factory.getClient(session.getIdentity())
-                    .getTableHandle(resolveKDBNamespace(Optional.of(tableName.getSchemaName())), tName);
+            return partitionDirectory.getTableHandle(factory.getClient(session), resolveKDBNamespace(Optional.of(tableName.getSchemaName())), tName);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -188,7 +277,59 @@ public class KDBMetadata implements ConnectorMetadata {
 
     @Override
     public ConnectorTableProperties getTableProperties(ConnectorSession session, ConnectorTableHandle table) {
-        return new ConnectorTableProperties();
+        KDBTableHandle handle = (KDBTableHandle) table;
+
+        Optional<DiscretePredicates> discretePredicates = Optional.empty();
+        // with sliced partitions the handle only knows the partitions of one slice
+        if (!slices && handle.isPartitioned() && handle.getPartitionColumn().map(col -> col.getKdbType() == KDBType.Date).orElse(false)) {
+            KDBColumnHandle partitionColumn = handle.getPartitionColumn().get();
+            List<TupleDomain<ColumnHandle>> partitions = new ArrayList<>();
+            KDBSplitSource.prunePartitions(handle, handle.getConstraint()).forEachRemaining(partition -> partitions.add(
+                    TupleDomain.withColumnDomains(Map.of(partitionColumn, Domain.singleValue(partitionColumn.getType(), KDBSplitSource.partitionValue(partition))))));
+            discretePredicates = Optional.of(new DiscretePredicates(List.of(partitionColumn), partitions));
+        }
+
+        return new ConnectorTableProperties(handle.getConstraint(), Optional.empty(), Optional.empty(), discretePredicates, getLocalProperties(session, handle));
+    }
+
+    /**
+     * Row order guaranteed by KDB. Local properties hold within a split, so they are only known for plain tables read in a single split.
+     * Sorted columns are sorted nulls first, parted and unique columns are grouped. Grouped columns only have an index and are not.
+     */
+    private List<LocalProperty<ColumnHandle>> getLocalProperties(ConnectorSession session, KDBTableHandle handle) {
+        if (handle.isPartitioned() || (handle.getLimit().isEmpty() && session.getProperty(Config.SESSION_SPLIT_TARGET_ROWS, Integer.class) > 0)) {
+            return List.of();
+        }
+
+        if (!handle.getSortOrder().isEmpty()) {
+            return handle.getSortOrder().stream()
+                    .map(item -> new SortingProperty<ColumnHandle>(item.getColumn(), item.toSortOrder()))
+                    .collect(Collectors.toList());
+        }
+
+        if (handle.isQuery()) {
+            return List.of();
+        }
+
+        List<LocalProperty<ColumnHandle>> properties = new ArrayList<>();
+        for (ColumnHandle column : getColumnHandles(session, handle).values()) {
+            Optional<KDBAttribute> attribute = ((KDBColumnHandle) column).getAttribute();
+            if (attribute.isEmpty()) {
+                continue;
+            }
+            switch (attribute.get()) {
+                case Sorted:
+                    properties.add(new SortingProperty<>(column, SortOrder.ASC_NULLS_FIRST));
+                    break;
+                case Parted:
+                case Unique:
+                    properties.add(new GroupingProperty<>(Set.of(column)));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return properties;
     }
 
     @Override
@@ -226,14 +367,195 @@ public class KDBMetadata implements ConnectorMetadata {
         }
 
         return Optional.of(new LimitApplicationResult<>(
-                new KDBTableHandle(khandle.getNamespace(), khandle.getTableName(), khandle.getConstraint(), OptionalLong.of(limit), khandle.isPartitioned(), khandle.getPartitionColumn(), khandle.getPartitions(), khandle.getExtraFilters()),
+                new KDBTableHandle(khandle.getNamespace(), khandle.getTableName(), khandle.getConstraint(), OptionalLong.of(limit), khandle.isPartitioned(), khandle.getPartitionColumn(), khandle.getPartitions(), khandle.getExtraFilters(), khandle.getRowRange()),
                 // for partitioned table since partitions are limited individually the limit is not guaranteed
                 !khandle.isPartitioned(),
                 false
         ));
     }
 
-    private static Set<KDBType> SUPPORTED_FILTER_TYPES = Set.of(
+    @Override
+    public Optional<TopNApplicationResult<ConnectorTableHandle>> applyTopN(ConnectorSession session, ConnectorTableHandle handle, long topNCount, List<SortItem> sortItems, Map<String, ColumnHandle> assignments) {
+        if (!session.getProperty(Config.SESSION_PUSH_DOWN_TOPN, Boolean.class)) {
+            return Optional.empty();
+        }
+
+        KDBTableHandle khandle = (KDBTableHandle) handle;
+        List<KDBSortItem> sortOrder = new ArrayList<>();
+        for (SortItem item : sortItems) {
+            KDBColumnHandle column = (KDBColumnHandle) assignments.get(item.getName());
+            if (column == null || !SUPPORTED_FILTER_TYPES.contains(column.getKdbType())) {
+                return Optional.empty();
+            }
+            sortOrder.add(new KDBSortItem(column, item.getSortOrder().isAscending(), item.getSortOrder().isNullsFirst()));
+        }
+
+        if (khandle.getLimit().isPresent()) {
+            // a plain limit picks arbitrary rows, which must not be sorted afterwards
+            if (!khandle.getSortOrder().equals(sortOrder) || khandle.getLimit().getAsLong() <= topNCount) {
+                return Optional.empty();
+            }
+        }
+
+        return Optional.of(new TopNApplicationResult<>(
+                new KDBTableHandle(khandle.getNamespace(), khandle.getTableName(), khandle.getConstraint(), OptionalLong.of(topNCount), khandle.isPartitioned(), khandle.getPartitionColumn(), khandle.getPartitions(), khandle.getExtraFilters(), khandle.getRowRange(), sortOrder),
+                // each partition is sorted and limited on its own, leaving the final top-N to Trino
+                !khandle.isPartitioned(),
+                false
+        ));
+    }
+
+    @Override
+    public Optional<JoinApplicationResult<ConnectorTableHandle>> applyJoin(ConnectorSession session, JoinType joinType, ConnectorTableHandle left, ConnectorTableHandle right, List<JoinCondition> joinConditions,
+                                                                           Map<String, ColumnHandle> leftAssignments, Map<String, ColumnHandle> rightAssignments, JoinStatistics statistics) {
+        if (!session.getProperty(Config.SESSION_PUSH_DOWN_JOIN, Boolean.class)
+                || (joinType != JoinType.INNER && joinType != JoinType.LEFT_OUTER)
+                || !isJoinShrinking(statistics)) {
+            return Optional.empty();
+        }
+
+        KDBTableHandle lhandle = (KDBTableHandle) left;
+        KDBTableHandle rhandle = (KDBTableHandle) right;
+        // partitioned tables are read a partition at a time, a join would load them whole
+        if (lhandle.isPartitioned() || rhandle.isPartitioned() || joinConditions.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<KDBColumnHandle> leftKeys = new ArrayList<>();
+        List<KDBColumnHandle> rightKeys = new ArrayList<>();
+        for (JoinCondition condition : joinConditions) {
+            if (condition.getOperator() != JoinCondition.Operator.EQUAL
+                    || !(condition.getLeftExpression() instanceof Variable)
+                    || !(condition.getRightExpression() instanceof Variable)) {
+                return Optional.empty();
+            }
+            KDBColumnHandle leftKey = (KDBColumnHandle) leftAssignments.get(((Variable) condition.getLeftExpression()).getName());
+            KDBColumnHandle rightKey = (KDBColumnHandle) rightAssignments.get(((Variable) condition.getRightExpression()).getName());
+            if (leftKey == null || rightKey == null || leftKey.getKdbType() != rightKey.getKdbType() || !SUPPORTED_FILTER_TYPES.contains(leftKey.getKdbType())) {
+                return Optional.empty();
+            }
+            leftKeys.add(leftKey);
+            rightKeys.add(rightKey);
+        }
+
+        // uj fills unmatched rows with empty strings rather than nulls for string columns
+        if (joinType == JoinType.LEFT_OUTER && rightAssignments.values().stream().anyMatch(col -> ((KDBColumnHandle) col).getKdbType() == KDBType.String)) {
+            return Optional.empty();
+        }
+
+        Map<ColumnHandle, ColumnHandle> leftColumns = new LinkedHashMap<>();
+        Map<ColumnHandle, ColumnHandle> rightColumns = new LinkedHashMap<>();
+        String leftQuery = toJoinInput(lhandle, leftKeys, leftAssignments.values(), "l", leftColumns);
+        String rightQuery = toJoinInput(rhandle, rightKeys, rightAssignments.values(), "r", rightColumns);
+
+        // q matches null keys with each other, SQL does not. Without nulls on the right, null keys on the left find no match.
+        List<String> notNull = new ArrayList<>();
+        for (int i = 0; i < rightKeys.size(); i++) {
+            if (rightKeys.get(i).getKdbType() != KDBType.String) {
+                notNull.add("not null k" + i);
+            }
+        }
+        if (!notNull.isEmpty()) {
+            rightQuery = "(select from " + rightQuery + " where " + String.join(", ", notNull) + ")";
+        }
+
+        String keys = IntStream.range(0, leftKeys.size()).mapToObj(i -> "`k" + i).collect(Collectors.joining());
+        if (leftKeys.size() == 1) {
+            keys = "enlist " + keys;
+        }
+
+        // ej returns every matching pair, the left join adds the unmatched left rows with nulls for the right columns
+        String query = joinType == JoinType.INNER
+                ? "ej[" + keys + "; " + leftQuery + "; " + rightQuery + "]"
+                : "{[k;l;r] ej[k;l;r] uj l where not (k#l) in k#r}[" + keys + "; " + leftQuery + "; " + rightQuery + "]";
+
+        return Optional.of(new JoinApplicationResult<>(
+                new KDBTableHandle(DEFAULT_NS, query, TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty()),
+                leftColumns,
+                rightColumns,
+                false));
+    }
+
+    /**
+     * Only join in KDB if the result is smaller than the inputs Trino would otherwise fetch.
+     */
+    private static boolean isJoinShrinking(JoinStatistics statistics) {
+        if (statistics.getLeftStatistics().isEmpty() || statistics.getRightStatistics().isEmpty() || statistics.getJoinStatistics().isEmpty()) {
+            return false;
+        }
+        return statistics.getJoinStatistics().get().getDataSize() <= statistics.getLeftStatistics().get().getDataSize() + statistics.getRightStatistics().get().getDataSize();
+    }
+
+    /**
+     * Query for one side of a join, with the join keys renamed to k0, k1, ... and the other columns to prefix0, prefix1, ...
+     * so that both sides share the key names and nothing else.
+     */
+    private static String toJoinInput(KDBTableHandle handle, List<KDBColumnHandle> keys, Collection<ColumnHandle> columns, String prefix, Map<ColumnHandle, ColumnHandle> mapping) {
+        List<KDBColumnHandle> selected = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            KDBColumnHandle key = keys.get(i);
+            selected.add(new KDBColumnHandle("k" + i, key.getType(), key.getKdbType(), Optional.empty(), false, Optional.of(key.getQueryExpression())));
+        }
+        for (ColumnHandle column : columns) {
+            KDBColumnHandle col = (KDBColumnHandle) column;
+            if (mapping.containsKey(col)) {
+                continue;
+            }
+            String name = prefix + mapping.size();
+            selected.add(new KDBColumnHandle(name, col.getType(), col.getKdbType(), Optional.empty(), false, Optional.of(col.getQueryExpression())));
+            mapping.put(col, new KDBColumnHandle(name, col.getType(), col.getKdbType(), Optional.empty(), false));
+        }
+        return "(" + handle.toQuery(selected, OptionalInt.empty(), 0, false) + ")";
+    }
+
+    @Override
+    public Optional<ProjectionApplicationResult<ConnectorTableHandle>> applyProjection(ConnectorSession session, ConnectorTableHandle handle, List<ConnectorExpression> projections, Map<String, ColumnHandle> assignments) {
+        if (!session.getProperty(Config.SESSION_PUSH_DOWN_PROJECTION, Boolean.class)) {
+            return Optional.empty();
+        }
+
+        Set<String> usedNames = new HashSet<>(assignments.keySet());
+        assignments.values().forEach(col -> usedNames.add(((KDBColumnHandle) col).getName()));
+
+        List<ConnectorExpression> newProjections = new ArrayList<>();
+        Map<String, Assignment> newAssignments = new LinkedHashMap<>();
+        boolean pushedDown = false;
+        for (ConnectorExpression projection : projections) {
+            Optional<KDBExpressionTranslator.Translation> translation = projection instanceof Call
+                    ? KDBExpressionTranslator.translate(projection, assignments)
+                    : Optional.empty();
+            if (translation.isPresent()) {
+                String name = "expr" + usedNames.size();
+                for (int i = usedNames.size() + 1; usedNames.contains(name); i++) {
+                    name = "expr" + i;
+                }
+                usedNames.add(name);
+                KDBColumnHandle column = new KDBColumnHandle(name, projection.getType(), translation.get().getType(), Optional.empty(), false, Optional.of(translation.get().getExpression()));
+                newAssignments.put(name, new Assignment(name, column, projection.getType()));
+                newProjections.add(new Variable(name, projection.getType()));
+                pushedDown = true;
+            } else {
+                // evaluated by Trino, keep the columns it needs
+                newProjections.add(projection);
+                addVariableAssignments(projection, assignments, newAssignments);
+            }
+        }
+
+        if (!pushedDown) {
+            return Optional.empty();
+        }
+        return Optional.of(new ProjectionApplicationResult<>(handle, newProjections, List.copyOf(newAssignments.values()), false));
+    }
+
+    private static void addVariableAssignments(ConnectorExpression expression, Map<String, ColumnHandle> assignments, Map<String, Assignment> result) {
+        if (expression instanceof Variable) {
+            String name = ((Variable) expression).getName();
+            result.putIfAbsent(name, new Assignment(name, assignments.get(name), expression.getType()));
+        }
+        expression.getChildren().forEach(child -> addVariableAssignments(child, assignments, result));
+    }
+
+    static final Set<KDBType> SUPPORTED_FILTER_TYPES = Set.of(
             KDBType.String, KDBType.Symbol,
             KDBType.Date, KDBType.Time, KDBType.Timestamp, KDBType.DateTime,
             KDBType.Float, KDBType.Real,
@@ -275,7 +597,7 @@ public class KDBMetadata implements ConnectorMetadata {
             return Optional.empty();
         }
 
-        KDBTableHandle newHandle = new KDBTableHandle(khandle.getNamespace(), khandle.getTableName(), next, khandle.getLimit(), khandle.isPartitioned(), khandle.getPartitionColumn(), khandle.getPartitions(), khandle.getExtraFilters());
+        KDBTableHandle newHandle = new KDBTableHandle(khandle.getNamespace(), khandle.getTableName(), next, khandle.getLimit(), khandle.isPartitioned(), khandle.getPartitionColumn(), khandle.getPartitions(), khandle.getExtraFilters(), khandle.getRowRange(), khandle.getSortOrder());
 
         return Optional.of(new ConstraintApplicationResult<>(newHandle, remaining, false));
     }
@@ -323,7 +645,9 @@ public class KDBMetadata implements ConnectorMetadata {
                                     table.isPartitioned(),
                                     table.getPartitionColumn(),
                                     table.getPartitions(),
-                                    extraFilters
+                                    extraFilters,
+                                    table.getRowRange(),
+                                    table.getSortOrder()
                             ),
                             TupleDomain.all(),
                             false
@@ -380,6 +704,95 @@ public class KDBMetadata implements ConnectorMetadata {
             ))
             .build();
 
+    private static final Set<String> DISTINCT_INSENSITIVE = Set.of("min", "max", "bool_and", "bool_or");
+
+    private static final Set<KDBType> ORDERABLE_TYPES = Set.of(
+            KDBType.Long, KDBType.Int, KDBType.Short, KDBType.Byte, KDBType.Float, KDBType.Real,
+            KDBType.Date, KDBType.Time, KDBType.Timestamp, KDBType.DateTime, KDBType.Month, KDBType.Minute, KDBType.Second, KDBType.TimeSpan);
+
+    // types without a null, where picking from no rows reads as a value rather than null
+    private static final Set<KDBType> NOT_NULLABLE_TYPES = Set.of(KDBType.String, KDBType.Char, KDBType.Boolean, KDBType.Byte);
+
+    /**
+     * Aggregate over translated argument expressions, with the KDB type of its result.
+     */
+    private static Optional<KDBExpressionTranslator.Translation> translateAggregate(AggregateFunction func, Map<String, ColumnHandle> assignments, boolean grouped) {
+        // FILTER and ORDER BY clauses are left to Trino
+        if (func.getFilter().isPresent() || !func.getSortItems().isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<KDBExpressionTranslator.Translation> args = new ArrayList<>();
+        for (ConnectorExpression arg : func.getArguments()) {
+            Optional<KDBExpressionTranslator.Translation> translated = KDBExpressionTranslator.translate(arg, assignments);
+            if (translated.isEmpty()) {
+                return Optional.empty();
+            }
+            args.add(translated.get());
+        }
+
+        String name = func.getFunctionName();
+        if ((name.equals("count") && func.isDistinct()) || name.equals("approx_distinct")) {
+            if (args.size() != 1) {
+                return Optional.empty();
+            }
+            // exact, which is within any error bound of approx_distinct. Nulls do not count, strings cannot be null.
+            String values = args.get(0).getType() == KDBType.String ? "distinct " : "{distinct x where not null x} ";
+            return Optional.of(new KDBExpressionTranslator.Translation("count " + values + args.get(0).getExpression(), KDBType.Long, false));
+        }
+
+        if (name.equals("min_by") || name.equals("max_by")) {
+            if (args.size() != 2 || !ORDERABLE_TYPES.contains(args.get(1).getType()) || NOT_NULLABLE_TYPES.contains(args.get(0).getType())) {
+                return Optional.empty();
+            }
+            // value at the first row with the smallest or largest key, min and max skip nulls and find nothing if all keys are null,
+            // indexing past the end then gives the null of the value type
+            String extreme = name.equals("min_by") ? "min" : "max";
+            return Optional.of(new KDBExpressionTranslator.Translation(
+                    "{x y?" + extreme + " y}[" + args.get(0).getExpression() + "; " + args.get(1).getExpression() + "]", args.get(0).getType(), false));
+        }
+
+        if (name.equals("arbitrary")) {
+            // first of no rows is the null of the type
+            if (args.size() != 1 || NOT_NULLABLE_TYPES.contains(args.get(0).getType())) {
+                return Optional.empty();
+            }
+            return Optional.of(new KDBExpressionTranslator.Translation("{first x where not null x} " + args.get(0).getExpression(), args.get(0).getType(), false));
+        }
+
+        if (name.equals("array_agg")) {
+            if (args.size() != 1) {
+                return Optional.empty();
+            }
+            Optional<KDBType> arrayType = KDBType.arrayOf(args.get(0).getType());
+            if (arrayType.isEmpty()) {
+                return Optional.empty();
+            }
+            // grouped selects collect the values of each group into a list already, groups are never empty.
+            // Without grouping, no rows give a generic null rather than an empty list, like array_agg in Trino.
+            return Optional.of(new KDBExpressionTranslator.Translation(
+                    (grouped ? "" : "{$[count x; enlist x; enlist (::)]} ") + args.get(0).getExpression(), arrayType.get(), false));
+        }
+
+        String kdbFunction = supported_functions.get(name);
+        if (kdbFunction == null || (func.isDistinct() && !DISTINCT_INSENSITIVE.contains(name)) || args.size() > 1) {
+            return Optional.empty();
+        }
+
+        KDBType resultType;
+        if (args.size() == 1 && args.get(0).getType().getTrinoType().equals(func.getOutputType())) {
+            resultType = args.get(0).getType();
+        } else if (Set.of(BigintType.BIGINT, DoubleType.DOUBLE, BooleanType.BOOLEAN).contains(func.getOutputType())) {
+            resultType = KDBType.fromTrinoType(func.getOutputType());
+        } else {
+            return Optional.empty();
+        }
+
+        // count(*) use case
+        String argument = args.isEmpty() ? "i" : args.get(0).getExpression();
+        return Optional.of(new KDBExpressionTranslator.Translation(kdbFunction + " " + argument, resultType, false));
+    }
+
     @Override
     public Optional<AggregationApplicationResult<ConnectorTableHandle>> applyAggregation(ConnectorSession session, ConnectorTableHandle ihandle, List<AggregateFunction> aggregates, Map<String, ColumnHandle> assignments, List<List<ColumnHandle>> groupingSets) {
         if (!session.getProperty(Config.SESSION_PUSH_DOWN_AGGREGATION, Boolean.class)) {
@@ -387,8 +800,8 @@ public class KDBMetadata implements ConnectorMetadata {
         }
 
         KDBTableHandle handle = (KDBTableHandle) ihandle;
-
-        if (!aggregates.stream().allMatch(agg -> supported_functions.containsKey(agg.getFunctionName()))) {
+        // the sort of a top-N only happens in its own query, aggregating the table would pick the first rows instead
+        if (!handle.getSortOrder().isEmpty()) {
             return Optional.empty();
         }
 
@@ -397,77 +810,72 @@ public class KDBMetadata implements ConnectorMetadata {
             return Optional.empty();
         }
 
+        List<KDBColumnHandle> grouping = (List) groupingSets.get(0);
         List<ConnectorExpression> projections = new ArrayList<>();
+        List<KDBType> resultTypes = new ArrayList<>();
         StringBuilder newQuery = new StringBuilder();
         newQuery.append("select ");
         for (int i=0; i<aggregates.size(); i++) {
             if (i>0) {
                 newQuery.append(", ");
             }
-            newQuery.append("col").append(i).append(": ");
             AggregateFunction func = aggregates.get(i);
-
-            // not supported yet
-            if (func.isDistinct()) {
+            Optional<KDBExpressionTranslator.Translation> aggregate = translateAggregate(func, assignments, !grouping.isEmpty());
+            if (aggregate.isEmpty()) {
                 return Optional.empty();
             }
 
-            newQuery.append(supported_functions.get(func.getFunctionName())).append(" ");
-
+            newQuery.append("col").append(i).append(": ").append(aggregate.get().getExpression());
             projections.add(new Variable("col"+i, func.getOutputType()));
-
-            if (func.getArguments().size() == 0) {
-                // count(*) use case
-                newQuery.append("i");
-            } else if (func.getArguments().size() == 1) {
-                ConnectorExpression expr = func.getArguments().get(0);
-                if (expr instanceof Variable) {
-                    Variable var = (Variable) expr;
-                    KDBColumnHandle colHandle = (KDBColumnHandle) assignments.get(var.getName());
-                    if (colHandle == null) {
-                        return Optional.empty();
-                    }
-                    newQuery.append(colHandle.getName());
-                } else {
-                    return Optional.empty();
-                }
-            } else {
-                // can't handle multiple args
-                return Optional.empty();
-            }
+            resultTypes.add(aggregate.get().getType());
         }
 
         if (aggregates.isEmpty()) {
             newQuery.append("count i");
         }
 
-        List<KDBColumnHandle> grouping = (List) groupingSets.get(0);
-
         if (!grouping.isEmpty()) {
             newQuery.append(" by ");
-            newQuery.append(grouping.stream().map(h -> h.getName()).collect(Collectors.joining(", ")));
+            newQuery.append(grouping.stream().map(KDBColumnHandle::getSelectExpression).collect(Collectors.joining(", ")));
         }
 
         newQuery.append(" from ");
 
+        // grouped by partition, every partition holds complete groups and can be aggregated in its own split
+        Optional<KDBColumnHandle> partitionColumn = handle.getPartitionColumn();
+        boolean perPartition = handle.isPartitioned() && !handle.isQuery() && handle.getLimit().isEmpty() && partitionColumn.isPresent() && grouping.contains(partitionColumn.get());
+        if (slices && handle.isPartitioned() && !perPartition) {
+            return Optional.empty();
+        }
+
         // limit and constraint -> need to construct a sub-query before running aggregation
-        if (handle.getLimit().isPresent() && !handle.getConstraint().isAll()) {
+        if (handle.getLimit().isPresent() && (!handle.getConstraint().isAll() || !handle.getExtraFilters().isEmpty())) {
             newQuery.append("(")
                     .append(handle.toQuery(Collections.emptyList(), OptionalInt.empty(), 50000, false))
                     .append(")");
+        } else if (perPartition) {
+            newQuery.append(handle.getTableNameQuery())
+                    .append(" where ").append(partitionColumn.get().getName()).append(" in partitions");
+            handle.getWhereClause().ifPresent(s -> newQuery.append(", ").append(s));
         } else {
             newQuery.append(handle.getTableNameQuery());
             handle.getWhereClause().ifPresent(s -> newQuery.append(" where ").append(s));
         }
 
+        KDBTableHandle newHandle = perPartition
+                // partitioned queries are functions of the partitions to read, keep pruning splits on the partition column
+                ? new KDBTableHandle(DEFAULT_NS, "{[partitions] " + newQuery + "}", handle.getConstraint().filter((col, domain) -> col.equals(partitionColumn.get())),
+                        OptionalLong.empty(), true, partitionColumn, handle.getPartitions(), List.of(), Optional.empty())
+                : new KDBTableHandle(DEFAULT_NS, newQuery.toString(), TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+
         AggregationApplicationResult<ConnectorTableHandle> result = new AggregationApplicationResult<>(
-                new KDBTableHandle(DEFAULT_NS, newQuery.toString(), TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of()),
+                newHandle,
                 projections,
-                projections.stream().map(v -> {
-                    Variable var = (Variable) v;
+                IntStream.range(0, projections.size()).mapToObj(i -> {
+                    Variable var = (Variable) projections.get(i);
                     return new Assignment(
                             var.getName(),
-                            new KDBColumnHandle(var.getName(), var.getType(), KDBType.fromTrinoType(var.getType()), Optional.empty(), false),
+                            new KDBColumnHandle(var.getName(), var.getType(), resultTypes.get(i), Optional.empty(), false),
                             var.getType());
                 }).collect(Collectors.toList()),
                 Map.of(),
@@ -513,6 +921,10 @@ public class KDBMetadata implements ConnectorMetadata {
 
     @Override
     public Optional<TableFunctionApplicationResult<ConnectorTableHandle>> applyTableFunction(ConnectorSession session, ConnectorTableFunctionHandle handle) {
+        if (handle instanceof AsofJoinFunction.AsofJoinHandle) {
+            AsofJoinFunction.AsofJoinHandle asofJoin = (AsofJoinFunction.AsofJoinHandle) handle;
+            return Optional.of(new TableFunctionApplicationResult<>(asofJoin.getTableHandle(), List.copyOf(asofJoin.getColumns())));
+        }
         if (!(handle instanceof QueryFunction.QueryHandle)) {
             return Optional.empty();
         }
@@ -522,4 +934,24 @@ public class KDBMetadata implements ConnectorMetadata {
 
         return Optional.of(new TableFunctionApplicationResult<>(h, columns));
     }
+
+    private static final class NameSnapshot {
+        private static final NameSnapshot EMPTY = new NameSnapshot(Map.of(), Map.of());
+
+        // lower case schema name -> KDB namespace
+        private final Map<String,String> schemas;
+        // table name -> original capitalization, since KDB is case sensitive
+        private final Map<SchemaTableName,String> tables;
+
+        NameSnapshot(Map<String,String> schemas, Map<SchemaTableName,String> tables) {
+            this.schemas = ImmutableMap.copyOf(schemas);
+            this.tables = ImmutableMap.copyOf(tables);
+        }
+
+        NameSnapshot withTables(Map<SchemaTableName,String> added) {
+            Map<SchemaTableName,String> merged = new HashMap<>(tables);
+            merged.putAll(added);
+            return new NameSnapshot(schemas, merged);
+        }
+    }
 }
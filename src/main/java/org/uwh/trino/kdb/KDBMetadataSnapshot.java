@@ -0,0 +1,322 @@
+package org.uwh.trino.kdb;
+
+import io.airlift.log.Logger;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ColumnMetadata;
+import io.trino.spi.connector.SchemaTableName;
+import io.trino.spi.statistics.ColumnStatistics;
+import io.trino.spi.statistics.DoubleRange;
+import io.trino.spi.statistics.Estimate;
+import io.trino.spi.statistics.TableStatistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Names, table descriptions, column metadata and statistics of a KDB instance as last seen by the connector, saved to
+ * a local file so that a restarted coordinator can plan queries before it has been back to KDB.
+ * The file holds a magic number, a format version and a CRC32 of the content. Files that fail any of these checks are
+ * ignored rather than trusted.
+ */
+public class KDBMetadataSnapshot {
+    private static final Logger LOGGER = Logger.get(KDBMetadataSnapshot.class);
+    private static final int MAGIC = 0x4B44424D; // KDBM
+    static final int VERSION = 1;
+
+    private final Map<String, String> schemas;
+    private final Map<SchemaTableName, String> tables;
+    private final Map<String, KDBClient.TableDescription> descriptions;
+    private final Map<String, List<ColumnMetadata>> columns;
+    private final List<TableStats> stats;
+
+    public KDBMetadataSnapshot(Map<String, String> schemas, Map<SchemaTableName, String> tables, Map<String, KDBClient.TableDescription> descriptions, Map<String, List<ColumnMetadata>> columns, List<TableStats> stats) {
+        this.schemas = Map.copyOf(schemas);
+        this.tables = Map.copyOf(tables);
+        this.descriptions = Map.copyOf(descriptions);
+        this.columns = Map.copyOf(columns);
+        this.stats = List.copyOf(stats);
+    }
+
+    public Map<String, String> getSchemas() {
+        return schemas;
+    }
+
+    public Map<SchemaTableName, String> getTables() {
+        return tables;
+    }
+
+    /**
+     * Table descriptions, including partitions, by qualified table name.
+     */
+    public Map<String, KDBClient.TableDescription> getDescriptions() {
+        return descriptions;
+    }
+
+    /**
+     * Column metadata by qualified table name.
+     */
+    public Map<String, List<ColumnMetadata>> getColumns() {
+        return columns;
+    }
+
+    public List<TableStats> getStats() {
+        return stats;
+    }
+
+    public static Optional<KDBMetadataSnapshot> read(Path file) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                LOGGER.warn("Ignoring metadata snapshot " + file + ", not a snapshot file");
+                return Optional.empty();
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                LOGGER.warn("Ignoring metadata snapshot " + file + " of version " + version + ", expected " + VERSION);
+                return Optional.empty();
+            }
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            if (in.readLong() != crc.getValue()) {
+                LOGGER.warn("Ignoring metadata snapshot " + file + ", checksum mismatch");
+                return Optional.empty();
+            }
+            return Optional.of(readContent(new DataInputStream(new ByteArrayInputStream(content))));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (Exception e) {
+            LOGGER.warn(e, "Ignoring unreadable metadata snapshot " + file);
+            return Optional.empty();
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        writeContent(new DataOutputStream(content));
+        CRC32 crc = new CRC32();
+        crc.update(content.toByteArray());
+
+        // write to a file of its own next to the target and move into place, so readers never see a partial file
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(content.size());
+                content.writeTo(out);
+                out.writeLong(crc.getValue());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void writeContent(DataOutputStream out) throws IOException {
+        out.writeInt(schemas.size());
+        for (Map.Entry<String, String> schema : schemas.entrySet()) {
+            out.writeUTF(schema.getKey());
+            out.writeUTF(schema.getValue());
+        }
+
+        out.writeInt(tables.size());
+        for (Map.Entry<SchemaTableName, String> table : tables.entrySet()) {
+            out.writeUTF(table.getKey().getSchemaName());
+            out.writeUTF(table.getKey().getTableName());
+            out.writeUTF(table.getValue());
+        }
+
+        out.writeInt(descriptions.size());
+        for (Map.Entry<String, KDBClient.TableDescription> description : descriptions.entrySet()) {
+            out.writeUTF(description.getKey());
+            writeColumns(out, description.getValue().getColumns());
+            out.writeBoolean(description.getValue().getPartitionColumn().isPresent());
+            if (description.getValue().getPartitionColumn().isPresent()) {
+                writeColumnHandle(out, description.getValue().getPartitionColumn().get());
+            }
+            out.writeInt(description.getValue().getPartitions().size());
+            for (String partition : description.getValue().getPartitions()) {
+                out.writeUTF(partition);
+            }
+        }
+
+        out.writeInt(columns.size());
+        for (Map.Entry<String, List<ColumnMetadata>> table : columns.entrySet()) {
+            out.writeUTF(table.getKey());
+            writeColumns(out, table.getValue());
+        }
+
+        out.writeInt(stats.size());
+        for (TableStats table : stats) {
+            out.writeUTF(table.getNamespace());
+            out.writeUTF(table.getTableName());
+            out.writeBoolean(table.isCalcStatsOnTheFly());
+            writeStatistics(out, table.getStatistics());
+        }
+        out.flush();
+    }
+
+    private static KDBMetadataSnapshot readContent(DataInputStream in) throws IOException {
+        Map<String, String> schemas = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            schemas.put(in.readUTF(), in.readUTF());
+        }
+
+        Map<SchemaTableName, String> tables = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            tables.put(new SchemaTableName(in.readUTF(), in.readUTF()), in.readUTF());
+        }
+
+        Map<String, KDBClient.TableDescription> descriptions = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = in.readUTF();
+            List<ColumnMetadata> columns = readColumns(in);
+            Optional<KDBColumnHandle> partitionColumn = in.readBoolean() ? Optional.of(readColumnHandle(in)) : Optional.empty();
+            List<String> partitions = new ArrayList<>();
+            for (int j = in.readInt(); j > 0; j--) {
+                partitions.add(in.readUTF());
+            }
+            descriptions.put(name, new KDBClient.TableDescription(columns, partitionColumn, List.copyOf(partitions)));
+        }
+
+        Map<String, List<ColumnMetadata>> columns = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            columns.put(in.readUTF(), readColumns(in));
+        }
+
+        List<TableStats> stats = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            stats.add(new TableStats(in.readUTF(), in.readUTF(), in.readBoolean(), readStatistics(in)));
+        }
+
+        return new KDBMetadataSnapshot(schemas, tables, descriptions, columns, stats);
+    }
+
+    private static void writeColumns(DataOutputStream out, List<ColumnMetadata> columns) throws IOException {
+        String[] names = new String[columns.size()];
+        char[] types = new char[columns.size()];
+        String[] attributes = new String[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            Map<String, Object> props = columns.get(i).getProperties();
+            names[i] = (String) props.get("kdb.name");
+            types[i] = ((KDBType) props.get("kdb.type")).getTypeCode();
+            attributes[i] = ((Optional<?>) props.get("kdb.attribute")).map(attr -> String.valueOf(((KDBAttribute) attr).getCode())).orElse("");
+        }
+
+        out.writeBoolean(!columns.isEmpty() && (boolean) columns.get(0).getProperties().get("kdb.isPartitionColumn"));
+        out.writeInt(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            out.writeUTF(names[i]);
+            out.writeChar(types[i]);
+            out.writeUTF(attributes[i]);
+        }
+    }
+
+    private static List<ColumnMetadata> readColumns(DataInputStream in) throws IOException {
+        boolean partitioned = in.readBoolean();
+        int size = in.readInt();
+        String[] names = new String[size];
+        char[] types = new char[size];
+        String[] attributes = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = in.readUTF();
+            types[i] = in.readChar();
+            attributes[i] = in.readUTF();
+        }
+        return KDBClient.toColumnMetadata(names, types, attributes, partitioned);
+    }
+
+    private static void writeColumnHandle(DataOutputStream out, KDBColumnHandle column) throws IOException {
+        out.writeUTF(column.getName());
+        out.writeChar(column.getKdbType().getTypeCode());
+        out.writeChar(column.getAttribute().map(KDBAttribute::getCode).orElse((char) 0));
+        out.writeBoolean(column.isPartitionColumn());
+    }
+
+    private static KDBColumnHandle readColumnHandle(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        KDBType type = KDBType.fromTypeCode(in.readChar());
+        char attribute = in.readChar();
+        return new KDBColumnHandle(name, type.getTrinoType(), type, attribute == 0 ? Optional.empty() : Optional.of(KDBAttribute.fromCode(attribute)), in.readBoolean());
+    }
+
+    private static void writeStatistics(DataOutputStream out, TableStatistics statistics) throws IOException {
+        out.writeDouble(statistics.getRowCount().getValue());
+        out.writeInt(statistics.getColumnStatistics().size());
+        for (Map.Entry<ColumnHandle, ColumnStatistics> column : statistics.getColumnStatistics().entrySet()) {
+            writeColumnHandle(out, (KDBColumnHandle) column.getKey());
+            ColumnStatistics stats = column.getValue();
+            out.writeDouble(stats.getNullsFraction().getValue());
+            out.writeDouble(stats.getDistinctValuesCount().getValue());
+            out.writeDouble(stats.getDataSize().getValue());
+            out.writeBoolean(stats.getRange().isPresent());
+            if (stats.getRange().isPresent()) {
+                out.writeDouble(stats.getRange().get().getMin());
+                out.writeDouble(stats.getRange().get().getMax());
+            }
+        }
+    }
+
+    private static TableStatistics readStatistics(DataInputStream in) throws IOException {
+        TableStatistics.Builder builder = TableStatistics.builder().setRowCount(readEstimate(in));
+        for (int i = in.readInt(); i > 0; i--) {
+            KDBColumnHandle column = readColumnHandle(in);
+            Estimate nullsFraction = readEstimate(in);
+            Estimate distinctValues = readEstimate(in);
+            Estimate dataSize = readEstimate(in);
+            Optional<DoubleRange> range = in.readBoolean() ? Optional.of(new DoubleRange(in.readDouble(), in.readDouble())) : Optional.empty();
+            builder.setColumnStatistics(column, new ColumnStatistics(nullsFraction, distinctValues, dataSize, range));
+        }
+        return builder.build();
+    }
+
+    // unknown estimates are written as NaN
+    private static Estimate readEstimate(DataInputStream in) throws IOException {
+        double value = in.readDouble();
+        return Double.isNaN(value) ? Estimate.unknown() : Estimate.of(value);
+    }
+
+    public static class TableStats {
+        private final String namespace;
+        private final String tableName;
+        private final boolean calcStatsOnTheFly;
+        private final TableStatistics statistics;
+
+        public TableStats(String namespace, String tableName, boolean calcStatsOnTheFly, TableStatistics statistics) {
+            this.namespace = namespace;
+            this.tableName = tableName;
+            this.calcStatsOnTheFly = calcStatsOnTheFly;
+            this.statistics = statistics;
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public boolean isCalcStatsOnTheFly() {
+            return calcStatsOnTheFly;
+        }
+
+        public TableStatistics getStatistics() {
+            return statistics;
+        }
+    }
+}
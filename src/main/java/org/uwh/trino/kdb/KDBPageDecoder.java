@@ -0,0 +1,430 @@
+package org.uwh.trino.kdb;
+
+import io.airlift.slice.DynamicSliceOutput;
+import io.trino.spi.Page;
+import io.trino.spi.block.Block;
+import io.trino.spi.block.ByteArrayBlock;
+import io.trino.spi.block.DictionaryBlock;
+import io.trino.spi.block.IntArrayBlock;
+import io.trino.spi.block.LongArrayBlock;
+import io.trino.spi.block.ShortArrayBlock;
+import io.trino.spi.block.VariableWidthBlock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Decodes a serialized KDB table (the result of -8!) straight into Trino blocks, skipping the boxed
+ * object arrays of c.Flip and the copy through a PageBuilder.
+ * Only plain vectors are handled here. For anything else decode returns empty and the caller falls back
+ * to deserializing with c.
+ */
+public class KDBPageDecoder {
+    // IPC type numbers
+    private static final byte LIST = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 4;
+    private static final byte SHORT = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte REAL = 8;
+    private static final byte FLOAT = 9;
+    private static final byte CHAR = 10;
+    private static final byte SYMBOL = 11;
+    private static final byte DATE = 14;
+    private static final byte MINUTE = 17;
+    private static final byte SECOND = 18;
+    private static final byte TIME = 19;
+    private static final byte TABLE = 98;
+    private static final byte DICT = 99;
+
+    // KDB dates count from 2000.01.01
+    private static final int DATE_OFFSET = 10957;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long PICOS_PER_MILLI = 1_000_000_000L;
+    private static final long PICOS_PER_SECOND = 1_000_000_000_000L;
+
+    private KDBPageDecoder() {}
+
+    public static Optional<Page> decode(List<KDBColumnHandle> columns, byte[] message, boolean symbolDictionary) {
+        if (message.length < 8 || message[2] != 0) {
+            // compressed messages are left to c
+            return Optional.empty();
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(message).order(message[0] == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        buf.position(8);
+
+        if (buf.get() != TABLE) {
+            return Optional.empty();
+        }
+        buf.get();
+        if (buf.get() != DICT || buf.get() != SYMBOL) {
+            return Optional.empty();
+        }
+        buf.get();
+        int numColumns = buf.getInt();
+        if (numColumns != columns.size()) {
+            return Optional.empty();
+        }
+        for (int i = 0; i < numColumns; i++) {
+            skipSymbol(buf);
+        }
+
+        if (buf.get() != LIST) {
+            return Optional.empty();
+        }
+        buf.get();
+        buf.getInt();
+
+        Block[] blocks = new Block[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            blocks[i] = decodeColumn(columns.get(i).getKdbType(), buf, symbolDictionary);
+            if (blocks[i] == null) {
+                return Optional.empty();
+            }
+        }
+
+        return Optional.of(new Page(blocks[0].getPositionCount(), blocks));
+    }
+
+    private static Block decodeColumn(KDBType type, ByteBuffer buf, boolean symbolDictionary) {
+        byte wireType = buf.get();
+        if (wireType != wireType(type)) {
+            return null;
+        }
+        buf.get();
+        int count = buf.getInt();
+
+        switch (type) {
+            case Boolean:
+            case Byte:
+                byte[] bytes = new byte[count];
+                buf.get(bytes);
+                return new ByteArrayBlock(count, Optional.empty(), bytes);
+            case Short:
+                return decodeShorts(buf, count);
+            case Int:
+                return decodeInts(buf, count, 0);
+            case Date:
+                return decodeInts(buf, count, DATE_OFFSET);
+            case Long:
+                return decodeLongs(buf, count);
+            case Real:
+                return decodeReals(buf, count);
+            case Float:
+                return decodeFloats(buf, count);
+            case Time:
+                // c turns times into a LocalTime, which wraps at midnight
+                return decodeTimes(buf, count, PICOS_PER_MILLI, MILLIS_PER_DAY);
+            case Minute:
+                return decodeTimes(buf, count, 60 * PICOS_PER_SECOND, 0);
+            case Second:
+                return decodeTimes(buf, count, PICOS_PER_SECOND, 0);
+            case Char:
+                return decodeChars(buf, count);
+            case Symbol:
+                return symbolDictionary ? decodeSymbolDictionary(buf, count) : decodeSymbols(buf, count);
+            case String:
+                return decodeStrings(buf, count);
+            default:
+                return null;
+        }
+    }
+
+    private static byte wireType(KDBType type) {
+        switch (type) {
+            case Boolean: return BOOLEAN;
+            case Byte: return BYTE;
+            case Short: return SHORT;
+            case Int: return INT;
+            case Long: return LONG;
+            case Real: return REAL;
+            case Float: return FLOAT;
+            case Char: return CHAR;
+            case Symbol: return SYMBOL;
+            case String: return LIST;
+            case Date: return DATE;
+            case Minute: return MINUTE;
+            case Second: return SECOND;
+            case Time: return TIME;
+            default: return -128;
+        }
+    }
+
+    private static Block decodeShorts(ByteBuffer buf, int count) {
+        short[] values = new short[count];
+        buf.asShortBuffer().get(values);
+        buf.position(buf.position() + count * 2);
+
+        boolean[] nulls = null;
+        for (int i = 0; i < count; i++) {
+            if (values[i] == Short.MIN_VALUE) {
+                nulls = setNull(nulls, count, i);
+            }
+        }
+        return new ShortArrayBlock(count, Optional.ofNullable(nulls), values);
+    }
+
+    private static Block decodeInts(ByteBuffer buf, int count, int offset) {
+        int[] values = new int[count];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + count * 4);
+
+        boolean[] nulls = null;
+        for (int i = 0; i < count; i++) {
+            if (values[i] == Integer.MIN_VALUE) {
+                nulls = setNull(nulls, count, i);
+            } else {
+                values[i] += offset;
+            }
+        }
+        return new IntArrayBlock(count, Optional.ofNullable(nulls), values);
+    }
+
+    private static Block decodeLongs(ByteBuffer buf, int count) {
+        long[] values = new long[count];
+        buf.asLongBuffer().get(values);
+        buf.position(buf.position() + count * 8);
+
+        boolean[] nulls = null;
+        for (int i = 0; i < count; i++) {
+            if (values[i] == Long.MIN_VALUE) {
+                nulls = setNull(nulls, count, i);
+            }
+        }
+        return new LongArrayBlock(count, Optional.ofNullable(nulls), values);
+    }
+
+    private static Block decodeReals(ByteBuffer buf, int count) {
+        float[] floats = new float[count];
+        buf.asFloatBuffer().get(floats);
+        buf.position(buf.position() + count * 4);
+
+        long[] values = new long[count];
+        boolean[] nulls = null;
+        for (int i = 0; i < count; i++) {
+            if (Float.isNaN(floats[i])) {
+                nulls = setNull(nulls, count, i);
+            } else {
+                values[i] = Double.doubleToLongBits(floats[i]);
+            }
+        }
+        return new LongArrayBlock(count, Optional.ofNullable(nulls), values);
+    }
+
+    private static Block decodeFloats(ByteBuffer buf, int count) {
+        long[] values = new long[count];
+        boolean[] nulls = null;
+        for (int i = 0; i < count; i++) {
+            double d = buf.getDouble();
+            if (Double.isNaN(d)) {
+                nulls = setNull(nulls, count, i);
+            } else {
+                values[i] = Double.doubleToLongBits(d);
+            }
+        }
+        return new LongArrayBlock(count, Optional.ofNullable(nulls), values);
+    }
+
+    private static Block decodeTimes(ByteBuffer buf, int count, long picosPerUnit, long unitsPerDay) {
+        long[] values = new long[count];
+        boolean[] nulls = null;
+        for (int i = 0; i < count; i++) {
+            int v = buf.getInt();
+            if (v == Integer.MIN_VALUE) {
+                nulls = setNull(nulls, count, i);
+            } else {
+                values[i] = (unitsPerDay > 0 ? Math.floorMod(v, unitsPerDay) : v) * picosPerUnit;
+            }
+        }
+        return new LongArrayBlock(count, Optional.ofNullable(nulls), values);
+    }
+
+    private static Block decodeChars(ByteBuffer buf, int count) {
+        DynamicSliceOutput out = new DynamicSliceOutput(count);
+        int[] offsets = new int[count + 1];
+        byte[] data = buf.array();
+        int pos = buf.position();
+        for (int i = 0; i < count; i++) {
+            writeLatin1(out, data, pos + i, 1);
+            offsets[i + 1] = out.size();
+        }
+        buf.position(pos + count);
+        return new VariableWidthBlock(count, out.slice(), offsets, Optional.empty());
+    }
+
+    private static Block decodeSymbols(ByteBuffer buf, int count) {
+        DynamicSliceOutput out = new DynamicSliceOutput(count * 8);
+        int[] offsets = new int[count + 1];
+        boolean[] nulls = null;
+        byte[] data = buf.array();
+        int pos = buf.position();
+        for (int i = 0; i < count; i++) {
+            int end = pos;
+            while (data[end] != 0) {
+                end++;
+            }
+            if (end == pos) {
+                nulls = setNull(nulls, count, i);
+            } else {
+                writeLatin1(out, data, pos, end - pos);
+            }
+            offsets[i + 1] = out.size();
+            pos = end + 1;
+        }
+        buf.position(pos);
+        return new VariableWidthBlock(count, out.slice(), offsets, Optional.ofNullable(nulls));
+    }
+
+    /**
+     * Interns the raw symbol bytes of the message with a small open addressing table, only the distinct
+     * symbols are copied into the dictionary.
+     */
+    private static Block decodeSymbolDictionary(ByteBuffer buf, int count) {
+        byte[] data = buf.array();
+        int[] ids = new int[count];
+
+        // distinct symbols as offset and length into the message
+        int distinct = 0;
+        int[] starts = new int[16];
+        int[] lengths = new int[16];
+        int[] hashes = new int[16];
+        // id + 1 per slot, 0 is free
+        int[] table = new int[64];
+
+        int pos = buf.position();
+        for (int i = 0; i < count; i++) {
+            int end = pos;
+            int hash = 0;
+            while (data[end] != 0) {
+                hash = 31 * hash + data[end];
+                end++;
+            }
+            int length = end - pos;
+
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            while (true) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    if (distinct == starts.length) {
+                        starts = Arrays.copyOf(starts, distinct * 2);
+                        lengths = Arrays.copyOf(lengths, distinct * 2);
+                        hashes = Arrays.copyOf(hashes, distinct * 2);
+                    }
+                    starts[distinct] = pos;
+                    lengths[distinct] = length;
+                    hashes[distinct] = hash;
+                    table[slot] = distinct + 1;
+                    ids[i] = distinct;
+                    distinct++;
+                    if (distinct * 2 > table.length) {
+                        table = rehash(hashes, distinct, table.length * 2);
+                    }
+                    break;
+                }
+                int id = entry - 1;
+                if (hashes[id] == hash && lengths[id] == length && Arrays.equals(data, starts[id], starts[id] + length, data, pos, end)) {
+                    ids[i] = id;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            pos = end + 1;
+        }
+        buf.position(pos);
+
+        DynamicSliceOutput out = new DynamicSliceOutput(distinct * 8);
+        int[] offsets = new int[distinct + 1];
+        boolean[] nulls = null;
+        for (int id = 0; id < distinct; id++) {
+            if (lengths[id] == 0) {
+                nulls = setNull(nulls, distinct, id);
+            } else {
+                writeLatin1(out, data, starts[id], lengths[id]);
+            }
+            offsets[id + 1] = out.size();
+        }
+        Block dictionary = new VariableWidthBlock(distinct, out.slice(), offsets, Optional.ofNullable(nulls));
+        return new DictionaryBlock(count, dictionary, ids);
+    }
+
+    private static int[] rehash(int[] hashes, int distinct, int size) {
+        int[] table = new int[size];
+        int mask = size - 1;
+        for (int id = 0; id < distinct; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+        return table;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static Block decodeStrings(ByteBuffer buf, int count) {
+        DynamicSliceOutput out = new DynamicSliceOutput(count * 16);
+        int[] offsets = new int[count + 1];
+        byte[] data = buf.array();
+        for (int i = 0; i < count; i++) {
+            byte type = buf.get();
+            if (type == CHAR) {
+                buf.get();
+                int length = buf.getInt();
+                writeLatin1(out, data, buf.position(), length);
+                buf.position(buf.position() + length);
+            } else if (type == -CHAR) {
+                writeLatin1(out, data, buf.position(), 1);
+                buf.get();
+            } else {
+                // mixed list, not a string column
+                return null;
+            }
+            offsets[i + 1] = out.size();
+        }
+        return new VariableWidthBlock(count, out.slice(), offsets, Optional.empty());
+    }
+
+    private static void skipSymbol(ByteBuffer buf) {
+        while (buf.get() != 0) {
+            // skip
+        }
+    }
+
+    /**
+     * c reads characters as ISO-8859-1, Trino wants UTF-8. Pure ASCII, by far the common case, is copied as is.
+     */
+    private static void writeLatin1(DynamicSliceOutput out, byte[] data, int offset, int length) {
+        int ascii = 0;
+        while (ascii < length && data[offset + ascii] >= 0) {
+            ascii++;
+        }
+        out.writeBytes(data, offset, ascii);
+        for (int i = ascii; i < length; i++) {
+            int ch = data[offset + i] & 0xff;
+            if (ch < 0x80) {
+                out.writeByte(ch);
+            } else {
+                out.writeByte(0xc0 | (ch >> 6));
+                out.writeByte(0x80 | (ch & 0x3f));
+            }
+        }
+    }
+
+    private static boolean[] setNull(boolean[] nulls, int count, int position) {
+        if (nulls == null) {
+            nulls = new boolean[count];
+        }
+        nulls[position] = true;
+        return nulls;
+    }
+}
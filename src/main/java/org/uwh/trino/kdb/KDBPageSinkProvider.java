@@ -16,6 +16,6 @@ public class KDBPageSinkProvider implements ConnectorPageSinkProvider {
 
     @Override
     public ConnectorPageSink createPageSink(ConnectorTransactionHandle transactionHandle, ConnectorSession session, ConnectorInsertTableHandle insertTableHandle) {
-        return new KDBPageSink(factory.getClient(session.getIdentity()), (KDBOutputTableHandle) insertTableHandle, session.getProperty(Config.SESSION_INSERT_FUNCTION, String.class));
+        return new KDBPageSink(factory.getClient(session).pinned(), (KDBOutputTableHandle) insertTableHandle, session.getProperty(Config.SESSION_INSERT_FUNCTION, String.class));
     }
 }
@@ -1,29 +1,84 @@
 package org.uwh.trino.kdb;
 
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import io.trino.plugin.base.metrics.DurationTiming;
+import io.trino.plugin.base.metrics.LongCount;
 import io.trino.spi.Page;
+import io.trino.spi.connector.ColumnHandle;
 import io.trino.spi.connector.ConnectorPageSource;
+import io.trino.spi.connector.DynamicFilter;
+import io.trino.spi.metrics.Metric;
+import io.trino.spi.metrics.Metrics;
+import io.trino.spi.predicate.TupleDomain;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Pages through a KDB table. With prefetching enabled, pages are fetched one after another on a dedicated executor
+ * while the driver consumes earlier pages, and isBlocked() lets the driver yield until the next page has arrived.
+ */
 public class KDBPageSource implements ConnectorPageSource {
-    private KDBTableHandle table;
+    private static final Logger LOGGER = Logger.get(KDBPageSource.class);
+
+    private volatile KDBTableHandle table;
     private List<KDBColumnHandle> columns;
-    private boolean finished = false;
     private final KDBClient client;
     private final int pageSize;
-    private int currentPage = 0;
     private final boolean isVirtualTables;
+    private final boolean useCursor;
+    private final boolean directDecode;
+    private final boolean symbolDictionary;
+    private final int prefetchPages;
+    private final Executor executor;
+    private final DynamicFilter dynamicFilter;
+    private final long dynamicFilterDeadline;
+    private boolean dynamicFilterApplied = false;
+
+    // fetch state, fetches never run concurrently
+    private int currentPage = 0;
+    private volatile boolean exhausted = false;
+    private volatile boolean closed = false;
+    // name of the server side result while it is held by KDB
+    private volatile Optional<String> cursor = Optional.empty();
+
+    // consumer state
+    private boolean finished = false;
+    private final Deque<CompletableFuture<Page>> buffer = new ArrayDeque<>();
+    private CompletableFuture<Page> lastFetch = CompletableFuture.completedFuture(null);
 
-    private long completedBytes = 0;
-    private long readTimeNanos = 0;
+    private final AtomicLong completedBytes = new AtomicLong();
+    private final AtomicLong readTimeNanos = new AtomicLong();
+    private final AtomicLong completedPositions = new AtomicLong();
+    private final Optional<String> segment;
 
-    public KDBPageSource(KDBClient client, KDBTableHandle table, List<KDBColumnHandle> columns, int pageSize, boolean isVirtualTables) {
+    public KDBPageSource(KDBClient client, KDBTableHandle table, List<KDBColumnHandle> columns, int pageSize, boolean isVirtualTables, boolean useCursor, boolean directDecode, boolean symbolDictionary, int prefetchPages, Executor executor, DynamicFilter dynamicFilter, long dynamicFilterWaitMillis, Optional<String> segment) {
         this.table = table;
         this.columns = columns;
-        this.client = client;
+        // a cursor lives in one q process, so all of its pages have to come from the same replica
+        this.client = useCursor ? client.pinned() : client;
         this.pageSize = pageSize;
         this.isVirtualTables = isVirtualTables;
+        this.useCursor = useCursor;
+        this.directDecode = directDecode;
+        this.symbolDictionary = symbolDictionary;
+        this.prefetchPages = prefetchPages;
+        this.executor = executor;
+        this.dynamicFilter = dynamicFilter;
+        this.dynamicFilterDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dynamicFilterWaitMillis);
+        this.segment = segment;
         if (table.getConstraint().isNone()) {
             finished = true;
         }
@@ -31,34 +86,160 @@ public class KDBPageSource implements ConnectorPageSource {
 
     @Override
     public long getCompletedBytes() {
-        return completedBytes;
+        return completedBytes.get();
     }
 
     @Override
     public long getReadTimeNanos() {
-        return readTimeNanos;
+        return readTimeNanos.get();
+    }
+
+    @Override
+    public Metrics getMetrics() {
+        KDBAdmissionController.Ticket ticket = client.getTicket();
+        Map<String, Metric<?>> metrics = new HashMap<>();
+        metrics.put("kdbRequests", new LongCount(ticket.getRequests()));
+        metrics.put("kdbQueuedRequests", new LongCount(ticket.getQueuedRequests()));
+        metrics.put("kdbQueueWait", new DurationTiming(new Duration(ticket.getWaitNanos(), TimeUnit.NANOSECONDS)));
+        metrics.put("kdbMaxQueueDepth", new LongCount(ticket.getMaxQueueDepth()));
+        // metrics are summed over all splits of the scan, which gives the throughput of each segment
+        segment.ifPresent(name -> {
+            metrics.put("kdbSegment[" + name + "].bytes", new LongCount(completedBytes.get()));
+            metrics.put("kdbSegment[" + name + "].rows", new LongCount(completedPositions.get()));
+            metrics.put("kdbSegment[" + name + "].readTime", new DurationTiming(new Duration(readTimeNanos.get(), TimeUnit.NANOSECONDS)));
+        });
+        return new Metrics(metrics);
     }
 
     @Override
-    public boolean isFinished() {
+    public synchronized boolean isFinished() {
         return finished;
     }
 
     @Override
-    public Page getNextPage() {
+    public synchronized Page getNextPage() {
         if (finished) {
             return null;
         }
+        if (awaitDynamicFilter() || finished) {
+            // still waiting, or the dynamic filter rules out all rows
+            return null;
+        }
+
+        if (prefetchPages <= 0) {
+            Page result = fetch();
+            finished = exhausted;
+            return result;
+        }
+
+        scheduleFetches();
+        CompletableFuture<Page> next = buffer.peekFirst();
+        if (next == null) {
+            finished = true;
+            return null;
+        }
+        if (!next.isDone()) {
+            return null;
+        }
+
+        buffer.pollFirst();
+        Page result;
+        try {
+            result = next.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        // fetches queued after the last page do not go to KDB
+        if (result == null || result.getPositionCount() < pageSize) {
+            finished = true;
+            buffer.clear();
+        } else {
+            // start on the next page while the engine works on this one
+            scheduleFetches();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized CompletableFuture<?> isBlocked() {
+        if (!finished && awaitDynamicFilter()) {
+            return dynamicFilter.isBlocked()
+                    .thenApply(ignored -> null)
+                    .completeOnTimeout(null, dynamicFilterDeadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        if (finished || prefetchPages <= 0) {
+            return NOT_BLOCKED;
+        }
+
+        scheduleFetches();
+        CompletableFuture<Page> next = buffer.peekFirst();
+        if (next == null || next.isDone()) {
+            return NOT_BLOCKED;
+        }
+        // don't hand out the buffered future itself, the engine may cancel what it is given
+        return next.handle((page, e) -> null);
+    }
+
+    /**
+     * Dynamic filters have to be in place before the first fetch, as every page re-runs the where clause.
+     * Returns true while the page source should keep waiting for more of them.
+     */
+    private boolean awaitDynamicFilter() {
+        if (dynamicFilterApplied) {
+            return false;
+        }
+        if (dynamicFilter.isAwaitable() && System.nanoTime() < dynamicFilterDeadline) {
+            return true;
+        }
+
+        dynamicFilterApplied = true;
+        TupleDomain<ColumnHandle> predicate = dynamicFilter.getCurrentPredicate()
+                .filter((column, domain) -> KDBMetadata.SUPPORTED_FILTER_TYPES.contains(((KDBColumnHandle) column).getKdbType()));
+        if (!predicate.isAll()) {
+            TupleDomain<ColumnHandle> constraint = table.getConstraint().intersect(predicate);
+            table = new KDBTableHandle(
+                    table.getNamespace(),
+                    table.getTableName(),
+                    constraint,
+                    table.getLimit(),
+                    table.isPartitioned(),
+                    table.getPartitionColumn(),
+                    table.getPartitions(),
+                    table.getExtraFilters(),
+                    table.getRowRange(),
+                    table.getSortOrder());
+            if (constraint.isNone()) {
+                finished = true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleFetches() {
+        while (!exhausted && buffer.size() < prefetchPages) {
+            lastFetch = lastFetch.thenApplyAsync(ignored -> fetch(), executor);
+            buffer.addLast(lastFetch);
+        }
+    }
+
+    private Page fetch() {
+        if (exhausted || closed) {
+            return null;
+        }
 
         try {
             long nanos = System.nanoTime();
-            Page result = client.getData(table, columns, currentPage, pageSize, isVirtualTables);
-            readTimeNanos += (System.nanoTime() - nanos);
-            completedBytes += result.getSizeInBytes();
+            Page result = fetchPage();
+            readTimeNanos.addAndGet(System.nanoTime() - nanos);
+            completedBytes.addAndGet(result.getSizeInBytes());
+            completedPositions.addAndGet(result.getPositionCount());
 
             currentPage += 1;
-            if (result == null || result.getPositionCount() < pageSize) {
-                finished = true;
+            if (result.getPositionCount() < pageSize) {
+                exhausted = true;
+                // KDB drops the cursor itself once the last page has been served
+                cursor = Optional.empty();
             }
             return result;
         } catch (Exception e) {
@@ -66,11 +247,51 @@ public class KDBPageSource implements ConnectorPageSource {
         }
     }
 
+    private Page fetchPage() throws Exception {
+        if (!useCursor) {
+            return client.getData(table, columns, currentPage, pageSize, isVirtualTables, directDecode, symbolDictionary);
+        }
+
+        if (cursor.isEmpty()) {
+            cursor = Optional.of("c" + UUID.randomUUID().toString().replace("-", ""));
+            return client.openCursor(cursor.get(), table, columns, pageSize, isVirtualTables, directDecode, symbolDictionary);
+        } else {
+            return client.fetchCursor(cursor.get(), columns, currentPage, pageSize, directDecode, symbolDictionary);
+        }
+    }
+
     @Override
-    public long getMemoryUsage() {
-        return 0;
+    public synchronized long getMemoryUsage() {
+        long bytes = 0;
+        for (CompletableFuture<Page> page : buffer) {
+            if (page.isDone() && !page.isCompletedExceptionally()) {
+                Page p = page.join();
+                if (p != null) {
+                    bytes += p.getRetainedSizeInBytes();
+                }
+            }
+        }
+        return bytes;
     }
 
     @Override
-    public void close() throws IOException {}
+    public synchronized void close() throws IOException {
+        closed = true;
+        finished = true;
+        buffer.clear();
+        // an in-flight fetch may still be creating the cursor, so drop it only once that fetch is done
+        lastFetch.whenComplete((page, e) -> dropCursor());
+    }
+
+    private void dropCursor() {
+        Optional<String> name = cursor;
+        cursor = Optional.empty();
+        if (name.isPresent()) {
+            try {
+                client.closeCursor(name.get());
+            } catch (Exception e) {
+                LOGGER.warn(e, "Failed to drop KDB cursor " + name.get());
+            }
+        }
+    }
 }
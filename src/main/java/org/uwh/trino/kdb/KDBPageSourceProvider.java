@@ -4,18 +4,19 @@ import io.trino.spi.connector.*;
 import io.trino.spi.predicate.Domain;
 import io.trino.spi.predicate.TupleDomain;
 
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class KDBPageSourceProvider implements ConnectorPageSourceProvider {
     private final KDBClientFactory factory;
     private final Config config;
+    private final Executor executor;
 
-    public KDBPageSourceProvider(KDBClientFactory factory, Config config) {
+    public KDBPageSourceProvider(KDBClientFactory factory, Config config, Executor executor) {
         this.factory = factory;
         this.config = config;
+        this.executor = executor;
     }
 
     @Override
@@ -32,11 +33,47 @@ public class KDBPageSourceProvider implements ConnectorPageSourceProvider {
                     tHandle.getLimit(),
                     tHandle.isPartitioned(),
                     tHandle.getPartitionColumn(),
+                    // the split's partition may be missing from the handle when the partitions are sliced over several endpoints
+                    List.of(kSplit.getPartition().get()),
+                    tHandle.getExtraFilters(),
+                    kSplit.getRowRange(),
+                    tHandle.getSortOrder());
+        } else if (kSplit.getRowRange().isPresent()) {
+            tHandle = new KDBTableHandle(
+                    tHandle.getNamespace(),
+                    tHandle.getTableName(),
+                    tHandle.getConstraint(),
+                    tHandle.getLimit(),
+                    tHandle.isPartitioned(),
+                    tHandle.getPartitionColumn(),
                     tHandle.getPartitions(),
-                    tHandle.getExtraFilters());
+                    tHandle.getExtraFilters(),
+                    kSplit.getRowRange(),
+                    tHandle.getSortOrder());
+        }
+
+        KDBClient client = factory.getClient(session);
+        if (kSplit.getEndpoint().isPresent()) {
+            // a partition of a sliced database is only held by its own endpoint, there is nothing to fail over to
+            client = config.useSplitAffinitySlices() && kSplit.getPartition().isPresent()
+                    ? client.onlyOn(kSplit.getEndpoint().get())
+                    : client.preferring(kSplit.getEndpoint().get());
         }
 
-        return new KDBPageSource(factory.getClient(session.getIdentity()), tHandle, tColumns, session.getProperty(Config.SESSION_PAGE_SIZE, Integer.class), session.getProperty(Config.SESSION_VIRTUAL_TABLES, Boolean.class));
+        return new KDBPageSource(
+                client,
+                tHandle,
+                tColumns,
+                session.getProperty(Config.SESSION_PAGE_SIZE, Integer.class),
+                session.getProperty(Config.SESSION_VIRTUAL_TABLES, Boolean.class),
+                session.getProperty(Config.SESSION_USE_CURSOR, Boolean.class),
+                session.getProperty(Config.SESSION_DIRECT_DECODE, Boolean.class),
+                session.getProperty(Config.SESSION_SYMBOL_DICTIONARY, Boolean.class),
+                session.getProperty(Config.SESSION_PREFETCH_PAGES, Integer.class),
+                executor,
+                dynamicFilter,
+                session.getProperty(Config.SESSION_DYNAMIC_FILTER_WAIT_TIMEOUT, Integer.class),
+                kSplit.getSegment());
     }
 
     private TupleDomain<ColumnHandle> getSplitColumnHandle(KDBColumnHandle partitionColumn, String partition) {
@@ -44,7 +81,7 @@ public class KDBPageSourceProvider implements ConnectorPageSourceProvider {
             throw new UnsupportedOperationException("Only date partition key implemented yet");
         }
 
-        long partitionValue = LocalDate.parse(partition, DateTimeFormatter.ofPattern("yyyy.MM.dd")).toEpochDay();
+        long partitionValue = KDBSplitSource.partitionValue(partition);
         return TupleDomain.withColumnDomains(Map.of(partitionColumn, Domain.singleValue(partitionColumn.getType(), partitionValue)));
     }
 }
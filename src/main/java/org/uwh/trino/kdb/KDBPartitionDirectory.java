@@ -0,0 +1,107 @@
+package org.uwh.trino.kdb;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import io.trino.spi.connector.ColumnMetadata;
+import io.trino.spi.predicate.TupleDomain;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Caches, per table, its columns, whether it is partitioned, its partition column and the partitions of the database,
+ * all fetched in a single round trip. Partitions are seeded from .Q.pv. As HDBs only ever append partitions, later lookups
+ * compare the number of partitions and the last one with KDB and only fetch the partitions added since.
+ * Anything else, such as a dropped partition, reloads the full list.
+ */
+public class KDBPartitionDirectory {
+    private final Cache<String, Entry> tables;
+
+    public KDBPartitionDirectory(long expireAfterSeconds) {
+        this.tables = CacheBuilder.newBuilder().expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS).build();
+    }
+
+    public KDBTableHandle getTableHandle(KDBClient client, String namespace, String name) throws Exception {
+        if (KDBTableHandle.isQuery(name)) {
+            return client.getTableHandle(namespace, name);
+        }
+
+        String qualifiedTableName = (namespace.equals("") ? "" : "." + namespace + ".") + name;
+        Entry entry = tables.getIfPresent(qualifiedTableName);
+        if (entry == null) {
+            entry = load(client, qualifiedTableName);
+        } else if (entry.partitionColumn.isPresent()) {
+            entry = refresh(client, entry);
+        }
+        tables.put(qualifiedTableName, entry);
+
+        return new KDBTableHandle(namespace, name, TupleDomain.all(), OptionalLong.empty(), entry.partitionColumn.isPresent(), entry.partitionColumn, entry.partitions, List.of(), Optional.empty());
+    }
+
+    public void invalidate(String qualifiedTableName) {
+        tables.invalidate(qualifiedTableName);
+    }
+
+    /**
+     * Columns of a table as of the last time it was resolved, if still cached.
+     */
+    public Optional<List<ColumnMetadata>> getColumns(String qualifiedTableName) {
+        return Optional.ofNullable(tables.getIfPresent(qualifiedTableName)).map(entry -> entry.columns);
+    }
+
+    /**
+     * All cached tables, for saving to a metadata snapshot.
+     */
+    public Map<String, KDBClient.TableDescription> export() {
+        return tables.asMap().entrySet().stream().collect(Collectors.toUnmodifiableMap(
+                Map.Entry::getKey,
+                e -> new KDBClient.TableDescription(e.getValue().columns, e.getValue().partitionColumn, e.getValue().partitions)));
+    }
+
+    /**
+     * Start from tables loaded from a metadata snapshot. Partitioned tables still check for new partitions on their next lookup.
+     */
+    public void seed(Map<String, KDBClient.TableDescription> descriptions) {
+        descriptions.forEach((name, description) -> tables.put(name, new Entry(description.getColumns(), description.getPartitionColumn(), description.getPartitions())));
+    }
+
+    private static Entry load(KDBClient client, String qualifiedTableName) throws Exception {
+        KDBClient.TableDescription description = client.describeTable(qualifiedTableName);
+        return new Entry(description.getColumns(), description.getPartitionColumn(), description.getPartitions());
+    }
+
+    private static Entry refresh(KDBClient client, Entry entry) throws Exception {
+        Map.Entry<Integer, String> latest = client.getLatestPartition();
+        int known = entry.partitions.size();
+        if (known > 0 && latest.getKey() == known && latest.getValue().equals(entry.partitions.get(known - 1))) {
+            return entry;
+        }
+
+        if (known > 0 && latest.getKey() > known) {
+            // overlap by one partition to check that the new ones were appended
+            List<String> added = client.getPartitions(known - 1);
+            if (added.get(0).equals(entry.partitions.get(known - 1))) {
+                return new Entry(entry.columns, entry.partitionColumn, ImmutableList.<String>builder().addAll(entry.partitions).addAll(added.subList(1, added.size())).build());
+            }
+        }
+        return new Entry(entry.columns, entry.partitionColumn, client.getPartitions(0));
+    }
+
+    private static class Entry {
+        private final List<ColumnMetadata> columns;
+        // present for partitioned tables
+        private final Optional<KDBColumnHandle> partitionColumn;
+        private final List<String> partitions;
+
+        Entry(List<ColumnMetadata> columns, Optional<KDBColumnHandle> partitionColumn, List<String> partitions) {
+            this.columns = columns;
+            this.partitionColumn = partitionColumn;
+            this.partitions = List.copyOf(partitions);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.uwh.trino.kdb;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Range [start, end) of row indices (the virtual column i) in a non-partitioned table.
+ * An end of Long.MAX_VALUE leaves the range open.
+ */
+public class KDBRowRange {
+    private final long start;
+    private final long end;
+
+    @JsonCreator
+    public KDBRowRange(@JsonProperty("start") long start, @JsonProperty("end") long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    @JsonProperty
+    public long getStart() {
+        return start;
+    }
+
+    @JsonProperty
+    public long getEnd() {
+        return end;
+    }
+
+    public String toKDBFilter() {
+        if (end == Long.MAX_VALUE) {
+            return "i >= " + start;
+        }
+        return "i within " + start + " " + (end - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "KDBRowRange{" +
+                "start=" + start +
+                ", end=" + end +
+                '}';
+    }
+}
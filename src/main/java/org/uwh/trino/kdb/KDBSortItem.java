@@ -0,0 +1,81 @@
+package org.uwh.trino.kdb;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.trino.spi.connector.SortOrder;
+
+import java.util.Objects;
+
+/**
+ * Sort key of a top-N pushed down into KDB.
+ */
+public class KDBSortItem {
+    private final KDBColumnHandle column;
+    private final boolean ascending;
+    private final boolean nullsFirst;
+
+    @JsonCreator
+    public KDBSortItem(@JsonProperty("column") KDBColumnHandle column, @JsonProperty("ascending") boolean ascending, @JsonProperty("nullsFirst") boolean nullsFirst) {
+        this.column = column;
+        this.ascending = ascending;
+        this.nullsFirst = nullsFirst;
+    }
+
+    @JsonProperty
+    public KDBColumnHandle getColumn() {
+        return column;
+    }
+
+    @JsonProperty
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    @JsonProperty
+    public boolean isNullsFirst() {
+        return nullsFirst;
+    }
+
+    public SortOrder toSortOrder() {
+        if (ascending) {
+            return nullsFirst ? SortOrder.ASC_NULLS_FIRST : SortOrder.ASC_NULLS_LAST;
+        }
+        return nullsFirst ? SortOrder.DESC_NULLS_FIRST : SortOrder.DESC_NULLS_LAST;
+    }
+
+    /**
+     * Stable sort of the permutation p of table t by this key, to be applied from the least to the most significant key.
+     */
+    public String toKDBSort() {
+        String values = "t[`" + column.getName() + "] p";
+        // compare symbols by their text, enumerated symbols would otherwise compare by enumeration index
+        String sort = "p:p " + (ascending ? "iasc " : "idesc ") + (column.getKdbType() == KDBType.Symbol ? "string " : "") + values + "; ";
+        // q orders nulls first ascending and last descending, strings cannot be null
+        if (ascending != nullsFirst && column.getKdbType() != KDBType.String) {
+            sort += "p:p " + (ascending ? "iasc" : "idesc") + " null " + values + "; ";
+        }
+        return sort;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        KDBSortItem that = (KDBSortItem) o;
+        return ascending == that.ascending && nullsFirst == that.nullsFirst && column.equals(that.column);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(column, ascending, nullsFirst);
+    }
+
+    @Override
+    public String toString() {
+        return "KDBSortItem{" +
+                "column=" + column.getName() +
+                ", ascending=" + ascending +
+                ", nullsFirst=" + nullsFirst +
+                '}';
+    }
+}
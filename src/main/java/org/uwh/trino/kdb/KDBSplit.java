@@ -2,7 +2,6 @@ package org.uwh.trino.kdb;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.collect.ImmutableList;
 import io.trino.spi.HostAddress;
 import io.trino.spi.connector.ConnectorSplit;
 
@@ -12,21 +11,44 @@ import java.util.Optional;
 public class KDBSplit implements ConnectorSplit {
     private final String table;
     private final Optional<String> partition;
+    private final Optional<KDBRowRange> rowRange;
+    private final Optional<String> segment;
+    private final Optional<String> endpoint;
+    private final List<HostAddress> addresses;
+    private final boolean remotelyAccessible;
+
+    public KDBSplit(String table, Optional<String> partition, Optional<KDBRowRange> rowRange, Optional<String> segment) {
+        this(table, partition, rowRange, segment, Optional.empty(), List.of(), true);
+    }
 
     @JsonCreator
-    public KDBSplit(@JsonProperty("table") String table, @JsonProperty("partition") Optional<String> partition) {
+    public KDBSplit(
+            @JsonProperty("table") String table,
+            @JsonProperty("partition") Optional<String> partition,
+            @JsonProperty("rowRange") Optional<KDBRowRange> rowRange,
+            @JsonProperty("segment") Optional<String> segment,
+            @JsonProperty("endpoint") Optional<String> endpoint,
+            @JsonProperty("addresses") List<HostAddress> addresses,
+            @JsonProperty("remotelyAccessible") boolean remotelyAccessible) {
         this.table = table;
         this.partition = partition;
+        this.rowRange = rowRange;
+        this.segment = segment;
+        this.endpoint = endpoint;
+        this.addresses = List.copyOf(addresses);
+        this.remotelyAccessible = remotelyAccessible;
     }
 
+    @JsonProperty("remotelyAccessible")
     @Override
     public boolean isRemotelyAccessible() {
-        return true;
+        return remotelyAccessible;
     }
 
+    @JsonProperty("addresses")
     @Override
     public List<HostAddress> getAddresses() {
-        return ImmutableList.of();
+        return addresses;
     }
 
     @Override
@@ -43,4 +65,25 @@ public class KDBSplit implements ConnectorSplit {
     public Optional<String> getPartition() {
         return partition;
     }
+
+    @JsonProperty("rowRange")
+    public Optional<KDBRowRange> getRowRange() {
+        return rowRange;
+    }
+
+    /**
+     * The segment of a segmented database holding the partition, if known.
+     */
+    @JsonProperty("segment")
+    public Optional<String> getSegment() {
+        return segment;
+    }
+
+    /**
+     * The replica, as host:port, this split should be read from.
+     */
+    @JsonProperty("endpoint")
+    public Optional<String> getEndpoint() {
+        return endpoint;
+    }
 }
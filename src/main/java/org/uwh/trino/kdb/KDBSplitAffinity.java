@@ -0,0 +1,111 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.HostAddress;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Assigns splits to the KDB endpoints from kdb.host and, where an endpoint runs on a Trino worker, asks the engine to schedule
+ * the split on that worker so that results do not cross the network.
+ * Endpoints are either full replicas, which take splits round robin, or each hold a slice of the date partitions,
+ * in which case a partition split always goes to the endpoint holding that partition.
+ */
+public class KDBSplitAffinity {
+    public enum Mode {
+        // splits are scheduled anywhere
+        NONE,
+        // splits prefer the worker colocated with their endpoint
+        SOFT,
+        // splits only run on the worker colocated with their endpoint
+        HARD
+    }
+
+    public static final KDBSplitAffinity NONE = new KDBSplitAffinity(Mode.NONE, List.of(), Map.of(), Map.of());
+
+    private final Mode mode;
+    private final List<KDBEndpoint> endpoints;
+    private final Map<String, HostAddress> workers;
+    // endpoint, as host:port, holding each partition, empty when the endpoints are full replicas
+    private final Map<String, String> partitionOwners;
+    private int next = 0;
+
+    public KDBSplitAffinity(Mode mode, List<KDBEndpoint> endpoints, Map<String, String> workerHosts, Map<String, String> partitionOwners) {
+        this.mode = mode;
+        this.endpoints = endpoints;
+        this.partitionOwners = partitionOwners;
+        this.workers = new HashMap<>();
+        for (KDBEndpoint endpoint : endpoints) {
+            // endpoints without an explicit mapping are assumed to run on the worker of the same name
+            String worker = workerHosts.getOrDefault(endpoint.toString(), workerHosts.getOrDefault(endpoint.getHost(), endpoint.getHost()));
+            workers.put(endpoint.toString(), HostAddress.fromString(worker));
+        }
+    }
+
+    /**
+     * In hard mode splits can only run on the worker of their endpoint, fail up front rather than leave them unschedulable.
+     */
+    public void checkWorkers(Set<String> workerHosts) {
+        if (mode != Mode.HARD) {
+            return;
+        }
+        for (Map.Entry<String, HostAddress> worker : workers.entrySet()) {
+            if (!workerHosts.contains(worker.getValue().getHostText())) {
+                throw new IllegalArgumentException("Split affinity is hard but KDB endpoint " + worker.getKey() + " maps to " + worker.getValue().getHostText()
+                        + ", which is not a Trino worker. Map it with " + Config.KDB_SPLIT_AFFINITY_WORKERS + " or use soft affinity");
+            }
+        }
+    }
+
+    public KDBSplit assign(KDBSplit split) {
+        Optional<String> owner = split.getPartition().map(partitionOwners::get);
+        if (owner.isEmpty() && (mode == Mode.NONE || endpoints.isEmpty())) {
+            return split;
+        }
+
+        String endpoint = owner.orElseGet(() -> nextEndpoint().toString());
+        return new KDBSplit(
+                split.getTable(),
+                split.getPartition(),
+                split.getRowRange(),
+                split.getSegment(),
+                Optional.of(endpoint),
+                mode == Mode.NONE ? List.of() : List.of(workers.get(endpoint)),
+                mode != Mode.HARD);
+    }
+
+    // round robin, skipping replicas that are down unless all of them are
+    private KDBEndpoint nextEndpoint() {
+        for (int i = 0; i < endpoints.size(); i++) {
+            KDBEndpoint endpoint = endpoints.get(next++ % endpoints.size());
+            if (endpoint.isHealthy()) {
+                return endpoint;
+            }
+        }
+        return endpoints.get(next++ % endpoints.size());
+    }
+
+    /**
+     * Parse a comma separated list of kdb-host[:port]=worker-host entries.
+     */
+    static Map<String, String> parseWorkerHosts(String mapping) {
+        if (mapping == null || mapping.isBlank()) {
+            return Map.of();
+        }
+        return List.of(mapping.split(",")).stream()
+                .map(String::trim)
+                .filter(entry -> !entry.isEmpty())
+                .map(entry -> {
+                    int idx = entry.indexOf('=');
+                    if (idx < 0) {
+                        throw new IllegalArgumentException("Invalid split affinity mapping, expected kdb-host=worker-host: " + entry);
+                    }
+                    return new String[] {entry.substring(0, idx).trim(), entry.substring(idx + 1).trim()};
+                })
+                .collect(Collectors.toUnmodifiableMap(entry -> entry[0], entry -> entry[1]));
+    }
+}
@@ -1,21 +1,79 @@
 package org.uwh.trino.kdb;
 
+import io.trino.spi.Node;
+import io.trino.spi.NodeManager;
 import io.trino.spi.connector.*;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class KDBSplitManager implements ConnectorSplitManager {
+    private final KDBClientFactory factory;
+    private final NodeManager nodeManager;
+    private final Map<String, String> workerHosts;
+    // every endpoint in kdb.host holds a different slice of the partitions
+    private final boolean slices;
+
+    public KDBSplitManager(KDBClientFactory factory, NodeManager nodeManager, Map<String, String> workerHosts, boolean slices) {
+        this.factory = factory;
+        this.nodeManager = nodeManager;
+        this.workerHosts = workerHosts;
+        this.slices = slices;
+    }
+
     @Override
     public ConnectorSplitSource getSplits(ConnectorTransactionHandle transaction, ConnectorSession session, ConnectorTableHandle table, SplitSchedulingStrategy splitSchedulingStrategy, DynamicFilter dynamicFilter) {
         KDBTableHandle handle = (KDBTableHandle) table;
-        if (handle.isPartitioned()) {
-            return new FixedSplitSource(
-                    handle.getPartitions().stream().map(partition -> new KDBSplit(handle.getTableName(), Optional.of(partition))).collect(Collectors.toList())
-            );
-        } else {
-            return new FixedSplitSource(List.of(new KDBSplit(handle.getTableName(), Optional.empty())));
+        long dynamicFilterWait = dynamicFilter.isAwaitable() ? session.getProperty(Config.SESSION_DYNAMIC_FILTER_WAIT_TIMEOUT, Integer.class) : 0;
+
+        long rowsPerSplit = 0;
+        long rowCount = 0;
+        Map<String, Long> partitionRowCounts = Map.of();
+        // row ranges only work on plain tables, a limit applies to the table as a whole
+        if (!handle.isQuery() && handle.getLimit().isEmpty()) {
+            rowsPerSplit = session.getProperty(Config.SESSION_SPLIT_TARGET_ROWS, Integer.class);
+            if (rowsPerSplit > 0) {
+                try {
+                    KDBClient client = factory.getClient(session);
+                    if (handle.isPartitioned()) {
+                        partitionRowCounts = client.getPartitionRowCounts(handle);
+                    } else {
+                        rowCount = client.getRowCount(handle);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        Map<String, String> partitionSegments = Map.of();
+        if (handle.isPartitioned() && session.getProperty(Config.SESSION_SEGMENT_INTERLEAVE, Boolean.class)) {
+            try {
+                partitionSegments = factory.getClient(session).getPartitionSegments();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
         }
+
+        Map<String, String> partitionOwners = Map.of();
+        if (handle.isPartitioned() && slices) {
+            try {
+                partitionOwners = factory.getClient(session).getPartitionOwners();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            // the handle only knows the partitions of the slice its metadata was read from
+            handle = new KDBTableHandle(handle.getNamespace(), handle.getTableName(), handle.getConstraint(), handle.getLimit(), true, handle.getPartitionColumn(),
+                    partitionOwners.keySet().stream().sorted().collect(Collectors.toList()), handle.getExtraFilters(), handle.getRowRange(), handle.getSortOrder());
+        }
+
+        KDBSplitAffinity.Mode affinityMode = session.getProperty(Config.SESSION_SPLIT_AFFINITY, KDBSplitAffinity.Mode.class);
+        KDBSplitAffinity affinity = KDBSplitAffinity.NONE;
+        if (affinityMode != KDBSplitAffinity.Mode.NONE || !partitionOwners.isEmpty()) {
+            affinity = new KDBSplitAffinity(affinityMode, factory.getEndpoints(), workerHosts, partitionOwners);
+            affinity.checkWorkers(nodeManager.getWorkerNodes().stream().map(Node::getHost).collect(Collectors.toSet()));
+        }
+
+        return new KDBSplitSource(handle, dynamicFilter, dynamicFilterWait, rowsPerSplit, rowCount, partitionRowCounts, partitionSegments, affinity);
     }
 }
@@ -0,0 +1,163 @@
+package org.uwh.trino.kdb;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorPartitionHandle;
+import io.trino.spi.connector.ConnectorSplit;
+import io.trino.spi.connector.ConnectorSplitSource;
+import io.trino.spi.connector.DynamicFilter;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Hands out one split per partition, lazily and only for partitions that the table constraint and dynamic filters
+ * on the partition column allow. For partitioned tables the split source waits, up to a deadline, for dynamic filters.
+ * Large non-partitioned tables and large partitions are split into ranges of row indices.
+ * For segmented databases splits can alternate between segments to keep all disks busy.
+ * With split affinity, splits are spread over the endpoints and carry the address of the worker colocated with theirs.
+ */
+public class KDBSplitSource implements ConnectorSplitSource {
+    private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    private final KDBTableHandle handle;
+    private final DynamicFilter dynamicFilter;
+    private final long dynamicFilterDeadline;
+    // target rows per split, 0 when not splitting by rows
+    private final long rowsPerSplit;
+    private final long rowCount;
+    private final Map<String, Long> partitionRowCounts;
+    // segment of each partition, empty unless interleaving segments
+    private final Map<String, String> partitionSegments;
+    private final KDBSplitAffinity affinity;
+    private Iterator<KDBSplit> splits;
+    private boolean finished = false;
+
+    public KDBSplitSource(KDBTableHandle handle, DynamicFilter dynamicFilter, long dynamicFilterWaitMillis, long rowsPerSplit, long rowCount, Map<String, Long> partitionRowCounts, Map<String, String> partitionSegments, KDBSplitAffinity affinity) {
+        this.handle = handle;
+        this.dynamicFilter = dynamicFilter;
+        this.dynamicFilterDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dynamicFilterWaitMillis);
+        this.rowsPerSplit = rowsPerSplit;
+        this.rowCount = rowCount;
+        this.partitionRowCounts = partitionRowCounts;
+        this.partitionSegments = partitionSegments;
+        this.affinity = affinity;
+    }
+
+    @Override
+    public CompletableFuture<ConnectorSplitBatch> getNextBatch(ConnectorPartitionHandle partitionHandle, int maxSize) {
+        if (splits == null) {
+            if (!handle.isPartitioned()) {
+                splits = rowRangeSplits(Optional.empty(), Optional.empty(), rowCount);
+            } else {
+                long remaining = dynamicFilterDeadline - System.nanoTime();
+                if (dynamicFilter.isAwaitable() && remaining > 0) {
+                    // copy, so that the timeout does not complete the engine's future
+                    return dynamicFilter.isBlocked()
+                            .thenApply(ignored -> new ConnectorSplitBatch(List.of(), false))
+                            .completeOnTimeout(new ConnectorSplitBatch(List.of(), false), remaining, TimeUnit.NANOSECONDS);
+                }
+                Iterator<String> partitions = prunePartitions(handle, handle.getConstraint().intersect(dynamicFilter.getCurrentPredicate()));
+                if (partitionSegments.isEmpty()) {
+                    splits = partitionSplits(partitions);
+                } else {
+                    // alternate between segments, so that consecutive splits read from different disks
+                    Map<String, List<String>> bySegment = new LinkedHashMap<>();
+                    partitions.forEachRemaining(partition -> bySegment.computeIfAbsent(partitionSegments.getOrDefault(partition, ""), k -> new ArrayList<>()).add(partition));
+                    splits = roundRobin(bySegment.values().stream()
+                            .map(segmentPartitions -> partitionSplits(segmentPartitions.iterator()))
+                            .collect(Collectors.toList()));
+                }
+            }
+        }
+
+        List<ConnectorSplit> batch = new ArrayList<>();
+        while (batch.size() < maxSize && splits.hasNext()) {
+            batch.add(affinity.assign(splits.next()));
+        }
+        finished = !splits.hasNext();
+        return CompletableFuture.completedFuture(new ConnectorSplitBatch(batch, finished));
+    }
+
+    private Iterator<KDBSplit> partitionSplits(Iterator<String> partitions) {
+        return Iterators.concat(Iterators.transform(partitions,
+                partition -> rowRangeSplits(Optional.of(partition), Optional.ofNullable(partitionSegments.get(partition)), partitionRowCounts.getOrDefault(partition, 0L))));
+    }
+
+    private static <T> Iterator<T> roundRobin(List<Iterator<T>> iterators) {
+        Deque<Iterator<T>> remaining = new ArrayDeque<>(iterators);
+        return new AbstractIterator<>() {
+            @Override
+            protected T computeNext() {
+                while (!remaining.isEmpty()) {
+                    Iterator<T> next = remaining.pollFirst();
+                    if (next.hasNext()) {
+                        remaining.addLast(next);
+                        return next.next();
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    private Iterator<KDBSplit> rowRangeSplits(Optional<String> partition, Optional<String> segment, long rowCount) {
+        if (rowsPerSplit <= 0 || rowCount <= rowsPerSplit) {
+            return Iterators.singletonIterator(new KDBSplit(handle.getTableName(), partition, Optional.empty(), segment));
+        }
+
+        long numSplits = (rowCount + rowsPerSplit - 1) / rowsPerSplit;
+        return LongStream.range(0, numSplits)
+                .mapToObj(n -> new KDBSplit(
+                        handle.getTableName(),
+                        partition,
+                        // the last range is open ended, so rows appended since counting are not lost
+                        Optional.of(new KDBRowRange(n * rowsPerSplit, n == numSplits - 1 ? Long.MAX_VALUE : (n + 1) * rowsPerSplit)),
+                        segment))
+                .iterator();
+    }
+
+    static Iterator<String> prunePartitions(KDBTableHandle handle, TupleDomain<ColumnHandle> predicate) {
+        if (predicate.isNone()) {
+            return Collections.emptyIterator();
+        }
+        KDBColumnHandle partitionColumn = handle.getPartitionColumn().orElseThrow();
+        Domain domain = predicate.getDomains().orElseThrow().get(partitionColumn);
+        if (domain == null || partitionColumn.getKdbType() != KDBType.Date) {
+            return handle.getPartitions().iterator();
+        }
+
+        return handle.getPartitions().stream()
+                .filter(partition -> domain.includesNullableValue(partitionValue(partition)))
+                .iterator();
+    }
+
+    static long partitionValue(String partition) {
+        return LocalDate.parse(partition, PARTITION_FORMAT).toEpochDay();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+}
@@ -26,6 +26,14 @@ public class KDBTableHandle implements ConnectorTableHandle {
     private final List<String> partitions;
     private final Optional<KDBColumnHandle> partitionColumn;
     private final List<KDBFilter> extraFilters;
+    private final Optional<KDBRowRange> rowRange;
+    // order of a pushed down top-N, whose row count is the limit
+    private final List<KDBSortItem> sortOrder;
+
+    public KDBTableHandle(String namespace, String tableName, TupleDomain<ColumnHandle> constraint, OptionalLong limit, boolean isPartitioned,
+                          Optional<KDBColumnHandle> partitionColumn, List<String> partitions, List<KDBFilter> extraFilters, Optional<KDBRowRange> rowRange) {
+        this(namespace, tableName, constraint, limit, isPartitioned, partitionColumn, partitions, extraFilters, rowRange, List.of());
+    }
 
     @JsonCreator
     public KDBTableHandle(@JsonProperty("namespace") String namespace,
@@ -35,7 +43,9 @@ public class KDBTableHandle implements ConnectorTableHandle {
                           @JsonProperty("isPartitioned") boolean isPartitioned,
                           @JsonProperty("partitionColumn") Optional<KDBColumnHandle> partitionColumn,
                           @JsonProperty("partitions") List<String> partitions,
-                          @JsonProperty("extraFilters") List<KDBFilter> extraFilters) {
+                          @JsonProperty("extraFilters") List<KDBFilter> extraFilters,
+                          @JsonProperty("rowRange") Optional<KDBRowRange> rowRange,
+                          @JsonProperty("sortOrder") List<KDBSortItem> sortOrder) {
         this.namespace = namespace;
         this.tableName = tableName;
         this.constraint = constraint;
@@ -44,6 +54,8 @@ public class KDBTableHandle implements ConnectorTableHandle {
         this.partitionColumn = partitionColumn;
         this.partitions = partitions;
         this.extraFilters = extraFilters;
+        this.rowRange = rowRange;
+        this.sortOrder = sortOrder;
     }
 
     @JsonProperty
@@ -88,6 +100,12 @@ public class KDBTableHandle implements ConnectorTableHandle {
     @JsonProperty("extraFilters")
     public List<KDBFilter> getExtraFilters() { return extraFilters; }
 
+    @JsonProperty("rowRange")
+    public Optional<KDBRowRange> getRowRange() { return rowRange; }
+
+    @JsonProperty("sortOrder")
+    public List<KDBSortItem> getSortOrder() { return sortOrder; }
+
     public boolean isQuery() {
         return isQuery(tableName);
     }
@@ -97,6 +115,10 @@ public class KDBTableHandle implements ConnectorTableHandle {
     }
 
     public String toQuery(List<KDBColumnHandle> columns, OptionalInt page, int pageSize, boolean isVirtualTables) {
+        if (!sortOrder.isEmpty()) {
+            return toTopNQuery(columns, page, pageSize);
+        }
+
         StringBuilder query = new StringBuilder();
 
         // Pagination & Limits
@@ -119,7 +141,7 @@ public class KDBTableHandle implements ConnectorTableHandle {
         }
 
         if (!columns.isEmpty()) {
-            query.append(columns.stream().map(KDBColumnHandle::getName).collect(Collectors.joining(", "))).append(" ");
+            query.append(columns.stream().map(KDBColumnHandle::getSelectExpression).collect(Collectors.joining(", "))).append(" ");
         }
 
         query.append("from ").append(getTableNameQuery());
@@ -129,7 +151,43 @@ public class KDBTableHandle implements ConnectorTableHandle {
         return query.toString();
     }
 
+    /**
+     * Selects the columns and sort keys, orders the rows with a chain of stable sorts from the least to the most
+     * significant key and takes the first rows up to the limit, before any paging.
+     */
+    private String toTopNQuery(List<KDBColumnHandle> columns, OptionalInt page, int pageSize) {
+        Set<KDBColumnHandle> selected = new LinkedHashSet<>(columns);
+        sortOrder.forEach(item -> selected.add(item.getColumn()));
+
+        StringBuilder inner = new StringBuilder("select ")
+                .append(selected.stream().map(KDBColumnHandle::getSelectExpression).collect(Collectors.joining(", ")))
+                .append(" from ").append(getTableNameQuery());
+        getWhereClause().ifPresent(s -> inner.append(" where ").append(s));
+
+        StringBuilder sort = new StringBuilder("{[t] p:til count t; ");
+        for (int i = sortOrder.size() - 1; i >= 0; i--) {
+            sort.append(sortOrder.get(i).toKDBSort());
+        }
+        sort.append(limit.getAsLong()).append(" sublist t p}[").append(inner).append("]");
+
+        String query = sort.toString();
+        if (selected.size() > columns.size()) {
+            query = columns.stream().map(KDBColumnHandle::getName).collect(Collectors.joining(", ", "select ", " ")) + "from " + query;
+        }
+        if (page.isPresent()) {
+            query = "select [" + ((long) page.getAsInt() * pageSize) + " " + pageSize + "] from " + query;
+        }
+        return query;
+    }
+
     public String getTableNameQuery() {
+        // partitioned queries are functions of the partitions to read, applied to those left by the constraint
+        if (isQuery() && isPartitioned) {
+            List<String> selected = new ArrayList<>();
+            KDBSplitSource.prunePartitions(this, constraint).forEachRemaining(selected::add);
+            String partitions = selected.isEmpty() ? "`date$()" : (selected.size() == 1 ? "enlist " : "") + String.join(" ", selected);
+            return "(" + tableName + ")[" + partitions + "]";
+        }
         // queries need to wrapped, unless they already are
         if (isQuery() && !tableName.matches("^\\(.*\\)$")) {
             return "("+tableName+")";
@@ -139,12 +197,12 @@ public class KDBTableHandle implements ConnectorTableHandle {
     }
 
     public Optional<String> getWhereClause() {
-        String filter = constructFilters(constraint, extraFilters);
+        String filter = constructFilters(constraint, extraFilters, rowRange.map(KDBRowRange::toKDBFilter));
         if (filter != null) {
             return Optional.of(filter);
         } else {
-            // optimization to limit directly on row index
-            if (limit.isPresent()) {
+            // optimization to limit directly on row index, unless the rows are sorted first
+            if (limit.isPresent() && sortOrder.isEmpty()) {
                 return Optional.of("i<" + limit.getAsLong());
             }
         }
@@ -200,26 +258,26 @@ public class KDBTableHandle implements ConnectorTableHandle {
                 if (!range.isLowUnbounded() && !range.isHighUnbounded() && column.getKdbType() == KDBType.Date) {
                     long lower = range.isLowInclusive() ? (long) range.getLowValue().get() : (long) range.getLowValue().get()+1;
                     long upper = range.isLowInclusive() ? (long) range.getHighValue().get() : (long) range.getHighValue().get()-1;
-                    disjuncts.add(column.getName() + " within " + formatKDBValue(KDBType.Date, lower) + " " + formatKDBValue(KDBType.Date, upper));
+                    disjuncts.add(column.getQueryExpression() + " within " + formatKDBValue(KDBType.Date, lower) + " " + formatKDBValue(KDBType.Date, upper));
                 } else {
                     if (!range.isLowUnbounded()) {
                         if (column.getKdbType() != KDBType.String) {
-                            conds.add(column.getName() + (range.isLowInclusive() ? " >= " : " > ") + formatKDBValue(column.getKdbType(), range.getLowValue().get()));
+                            conds.add(column.getQueryExpression() + (range.isLowInclusive() ? " >= " : " > ") + formatKDBValue(column.getKdbType(), range.getLowValue().get()));
                         } else {
                             // Strings don't support comparison, cast to symbol instead
                             // https://stackoverflow.com/questions/57176867/compare-if-one-string-is-greater-than-another-in-kdb
                             conds.add(
-                                    "(`$"+column.getName() + ")" +
+                                    "(`$"+column.getQueryExpression() + ")" +
                                     (range.isLowInclusive() ? " >= " : " > ") +
                                     formatKDBValue(KDBType.Symbol, range.getLowValue().get())
                             );
                         }
                     } else if (!range.isHighUnbounded()) {
                         if (column.getKdbType() != KDBType.String) {
-                            conds.add(column.getName() + (range.isHighInclusive() ? " <= " : " < ") + formatKDBValue(column.getKdbType(), range.getHighValue().get()));
+                            conds.add(column.getQueryExpression() + (range.isHighInclusive() ? " <= " : " < ") + formatKDBValue(column.getKdbType(), range.getHighValue().get()));
                         } else {
                             conds.add(
-                                    "(`$" + column.getName() + ")" +
+                                    "(`$" + column.getQueryExpression() + ")" +
                                     (range.isHighInclusive() ? " <= " : " < ") +
                                     formatKDBValue(KDBType.Symbol, range.getHighValue().get())
                             );
@@ -230,7 +288,7 @@ public class KDBTableHandle implements ConnectorTableHandle {
                             // all strings are not null
                             disjuncts.add("(count i)#1b");
                         } else {
-                            disjuncts.add("not null " + column.getName());
+                            disjuncts.add("not null " + column.getQueryExpression());
                         }
                     }
 
@@ -245,18 +303,18 @@ public class KDBTableHandle implements ConnectorTableHandle {
 
         if (singleValues.size() == 1) {
             if (column.getKdbType() == KDBType.String) {
-                disjuncts.add(column.getName() + " like " + formatKDBValue(KDBType.String, singleValues.get(0)));
+                disjuncts.add(column.getQueryExpression() + " like " + formatKDBValue(KDBType.String, singleValues.get(0)));
             } else {
-                disjuncts.add(column.getName() + " = " + formatKDBValue(column.getKdbType(), singleValues.get(0)));
+                disjuncts.add(column.getQueryExpression() + " = " + formatKDBValue(column.getKdbType(), singleValues.get(0)));
             }
         } else if (singleValues.size() > 1) {
-            disjuncts.add(column.getName() + " in (" + String.join("; ", singleValues.stream().map(s -> formatKDBValue(column.getKdbType(),s)).collect(Collectors.toList())) + ")");
+            disjuncts.add(column.getQueryExpression() + " in (" + String.join("; ", singleValues.stream().map(s -> formatKDBValue(column.getKdbType(),s)).collect(Collectors.toList())) + ")");
         } else if (domain.isOnlyNull()) {
             if (column.getKdbType() == KDBType.String) {
                 // no way to represent null
                 disjuncts.add("(count i)#0b");
             } else {
-                disjuncts.add("null " + column.getName());
+                disjuncts.add("null " + column.getQueryExpression());
             }
         }
 
@@ -280,8 +338,16 @@ public class KDBTableHandle implements ConnectorTableHandle {
     }
 
     public static String constructFilters(TupleDomain<ColumnHandle> domain, List<KDBFilter> extraFilters) {
+        return constructFilters(domain, extraFilters, Optional.empty());
+    }
+
+    /**
+     * @param rowFilter restriction on the row index i, placed before all other conditions except the one on the partition column,
+     *                  which has to come first for KDB to select partitions. In a partitioned table i counts within each partition.
+     */
+    public static String constructFilters(TupleDomain<ColumnHandle> domain, List<KDBFilter> extraFilters, Optional<String> rowFilter) {
         if (domain.isAll() && extraFilters.isEmpty()) {
-            return null;
+            return rowFilter.orElse(null);
         } else if (domain.isNone()) {
             // impossible constraint
             return "i = -1";
@@ -313,7 +379,11 @@ public class KDBTableHandle implements ConnectorTableHandle {
             }
         }
 
-        return String.join(", ", conditions.values());
+        List<String> result = new ArrayList<>(conditions.values());
+        if (rowFilter.isPresent()) {
+            result.add(!conditions.isEmpty() && conditions.firstKey().isPartitionColumn() ? 1 : 0, rowFilter.get());
+        }
+        return String.join(", ", result);
     }
 
     @Override
@@ -327,6 +397,8 @@ public class KDBTableHandle implements ConnectorTableHandle {
                 ", partitions=" + partitions +
                 ", partitionColumn=" + partitionColumn +
                 ", extraFilters=" + extraFilters +
+                ", rowRange=" + rowRange +
+                ", sortOrder=" + sortOrder +
                 '}';
     }
 }
@@ -4,12 +4,16 @@ import io.airlift.slice.Slice;
 import io.airlift.slice.Slices;
 import io.trino.spi.block.Block;
 import io.trino.spi.block.BlockBuilder;
+import io.trino.spi.block.DictionaryBlock;
 import io.trino.spi.type.*;
 import com.kx.c;
 
 import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.TimeZone;
 import java.util.UUID;
 
@@ -413,8 +417,38 @@ public enum KDBType {
         return x-getTzOffset(x-getTzOffset(x));
     }
 
+    /**
+     * Symbols are interned by KDB and typically have few distinct values, so keep them dictionary encoded.
+     * The empty symbol is null, like in the Symbol writer.
+     */
+    public static Block toSymbolDictionary(String[] symbols) {
+        Map<String, Integer> index = new HashMap<>();
+        BlockBuilder dictionary = VarcharType.VARCHAR.createBlockBuilder(null, 16);
+        int[] ids = new int[symbols.length];
+        for (int i=0; i<symbols.length; i++) {
+            String s = symbols[i];
+            Integer id = index.get(s);
+            if (id == null) {
+                id = index.size();
+                index.put(s, id);
+                if (s.isEmpty()) {
+                    dictionary.appendNull();
+                } else {
+                    VarcharType.VARCHAR.writeString(dictionary, s);
+                }
+            }
+            ids[i] = id;
+        }
+        return new DictionaryBlock(symbols.length, dictionary.build(), ids);
+    }
+
     private static void writeArray(KDBType inner, BlockBuilder bb, Object values) {
         for (Object ls: (Object[]) values) {
+            // the generic null (::), null elements are handled by the element type
+            if (ls == null) {
+                bb.appendNull();
+                continue;
+            }
             BlockBuilder sub = bb.beginBlockEntry();
             inner.writeBlock(sub, ls);
             bb.closeEntry();
@@ -425,6 +459,18 @@ public enum KDBType {
         return Arrays.stream(KDBType.values()).filter(t -> t.getTypeCode() == c).findFirst().orElseThrow(() -> new UnsupportedOperationException("Type " + c + " is not implemented"));
     }
 
+    /**
+     * Nested list type with elements of the given atom type, such as the values of a group.
+     */
+    public static Optional<KDBType> arrayOf(KDBType type) {
+        char code = type.getTypeCode();
+        // upper case char is a string rather than a list of chars
+        if (!Character.isLowerCase(code) || code == 'c') {
+            return Optional.empty();
+        }
+        return Arrays.stream(KDBType.values()).filter(t -> t.getTypeCode() == Character.toUpperCase(code)).findFirst();
+    }
+
     public static KDBType fromTrinoType(Type type) {
         if (type == BigintType.BIGINT) {
             return KDBType.Long;
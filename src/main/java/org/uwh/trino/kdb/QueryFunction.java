@@ -40,7 +40,7 @@ public class QueryFunction extends AbstractConnectorTableFunction {
         ScalarArgument argument = (ScalarArgument) getOnlyElement(arguments.values());
         String query = ((Slice) argument.getValue()).toStringUtf8();
 
-        KDBClient client = factory.getClient(session.getIdentity());
+        KDBClient client = factory.getClient(session);
         KDBTableHandle handle = null;
         try {
             handle = client.getTableHandle("", query);
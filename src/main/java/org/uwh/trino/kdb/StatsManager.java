@@ -1,34 +1,116 @@
 package org.uwh.trino.kdb;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.airlift.log.Logger;
 import io.trino.spi.connector.ConnectorSession;
 import io.trino.spi.connector.SchemaTableName;
 import io.trino.spi.statistics.TableStatistics;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+/**
+ * Table statistics, cached for a bounded time and number of tables. Stats older than the refresh interval are served
+ * as is while they are reloaded in the background, so only the first lookup of a table waits for KDB.
+ */
 public class StatsManager {
     private static final Logger LOGGER = Logger.get(StatsManager.class);
 
     private final KDBClientFactory factory;
-    private final Map<SchemaTableName, TableStatistics> cachedStats = new HashMap<>();
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kdb-stats-refresh-%s").build());
+    private final LoadingCache<StatsKey, TableStatistics> cachedStats;
 
     public StatsManager(KDBClientFactory factory) {
+        this(factory, new Config(Map.of()));
+    }
+
+    public StatsManager(KDBClientFactory factory, Config config) {
         this.factory = factory;
+        this.cachedStats = CacheBuilder.newBuilder()
+                .maximumSize(config.getStatsCacheMaxSize())
+                .expireAfterWrite(config.getMetadataRefreshInterval(), TimeUnit.SECONDS)
+                .refreshAfterWrite(config.getStatsRefreshInterval(), TimeUnit.SECONDS)
+                .build(CacheLoader.asyncReloading(CacheLoader.from(StatsManager::load), refreshExecutor));
     }
 
     public TableStatistics getTableStats(KDBTableHandle table, ConnectorSession session, boolean calcStatsOnTheFly) {
         SchemaTableName fname = new SchemaTableName(KDBMetadata.resolveSchema(table.getNamespace()), table.getTableName());
-        KDBClient client = factory.getClient(session.getIdentity());
-        if (!cachedStats.containsKey(fname)) {
-            try {
-                cachedStats.put(fname, client.getTableStatistics(table, calcStatsOnTheFly));
-            } catch (Exception e) {
-                LOGGER.warn(e, "Exception collecting stats for table "+table);
-                return TableStatistics.empty();
-            }
+        try {
+            return cachedStats.get(new StatsKey(fname, calcStatsOnTheFly, table, factory.getClient(session)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // failures are not cached, the next lookup tries again
+            LOGGER.warn(e.getCause(), "Exception collecting stats for table "+table);
+            return TableStatistics.empty();
+        }
+    }
+
+    /**
+     * All cached stats, for saving to a metadata snapshot.
+     */
+    public List<KDBMetadataSnapshot.TableStats> export() {
+        return cachedStats.asMap().entrySet().stream()
+                .map(e -> new KDBMetadataSnapshot.TableStats(e.getKey().table.getNamespace(), e.getKey().table.getTableName(), e.getKey().calcStatsOnTheFly, e.getValue()))
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * Start from stats loaded from a metadata snapshot, and reload them in the background.
+     */
+    public void seed(KDBTableHandle table, boolean calcStatsOnTheFly, TableStatistics statistics) {
+        SchemaTableName fname = new SchemaTableName(KDBMetadata.resolveSchema(table.getNamespace()), table.getTableName());
+        StatsKey key = new StatsKey(fname, calcStatsOnTheFly, table, factory.getDefaultClient());
+        cachedStats.put(key, statistics);
+        cachedStats.refresh(key);
+    }
+
+    private static TableStatistics load(StatsKey key) {
+        try {
+            return key.client.getTableStatistics(key.table, key.calcStatsOnTheFly);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    // identified by table and stats mode only, the handle and client are kept to (re)load the stats
+    private static class StatsKey {
+        private final SchemaTableName name;
+        private final boolean calcStatsOnTheFly;
+        private final KDBTableHandle table;
+        private final KDBClient client;
+
+        StatsKey(SchemaTableName name, boolean calcStatsOnTheFly, KDBTableHandle table, KDBClient client) {
+            this.name = name;
+            this.calcStatsOnTheFly = calcStatsOnTheFly;
+            this.table = table;
+            this.client = client;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            StatsKey that = (StatsKey) o;
+            return calcStatsOnTheFly == that.calcStatsOnTheFly && name.equals(that.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, calcStatsOnTheFly);
         }
-        return cachedStats.get(fname);
     }
 }
@@ -0,0 +1,94 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.trino.spi.Page;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a serialized result page through c.Flip (what c.k does today) with KDBPageDecoder.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.uwh.trino.kdb.BenchmarkPageDecoder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkPageDecoder {
+    @Param({"longs", "mixed", "symbols"})
+    private String columnSet;
+
+    @Param({"50000"})
+    private int rows;
+
+    @Param({"false", "true"})
+    private boolean symbolDictionary;
+
+    private List<KDBColumnHandle> columns;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        long[] longs = new long[rows];
+        double[] floats = new double[rows];
+        String[] symbols = new String[rows];
+        LocalDate[] dates = new LocalDate[rows];
+        String[] universe = {"ibm", "msft", "aapl", "goog", "amzn", ""};
+        for (int i = 0; i < rows; i++) {
+            longs[i] = random.nextInt(100) == 0 ? Long.MIN_VALUE : random.nextLong();
+            floats[i] = random.nextDouble();
+            symbols[i] = universe[random.nextInt(universe.length)];
+            dates[i] = LocalDate.of(2022, 1, 1).plusDays(random.nextInt(365));
+        }
+
+        c.Flip flip;
+        if (columnSet.equals("longs")) {
+            columns = List.of(column("v", KDBType.Long));
+            flip = new c.Flip(new c.Dict(new String[] {"v"}, new Object[] {longs}));
+        } else if (columnSet.equals("symbols")) {
+            columns = List.of(column("sym", KDBType.Symbol));
+            flip = new c.Flip(new c.Dict(new String[] {"sym"}, new Object[] {symbols}));
+        } else {
+            columns = List.of(column("v", KDBType.Long), column("px", KDBType.Float), column("sym", KDBType.Symbol), column("date", KDBType.Date));
+            flip = new c.Flip(new c.Dict(new String[] {"v", "px", "sym", "date"}, new Object[] {longs, floats, symbols, dates}));
+        }
+        message = new c().serialize(2, flip, false);
+    }
+
+    @Benchmark
+    public Page flip() throws Exception {
+        return KDBClient.toPage(columns, (c.Flip) new c().deserialize(message), symbolDictionary);
+    }
+
+    @Benchmark
+    public Page direct() {
+        return KDBPageDecoder.decode(columns, message, symbolDictionary).orElseThrow();
+    }
+
+    private static KDBColumnHandle column(String name, KDBType type) {
+        return new KDBColumnHandle(name, type.getTrinoType(), type, Optional.empty(), false);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(BenchmarkPageDecoder.class.getSimpleName()).build()).run();
+    }
+}
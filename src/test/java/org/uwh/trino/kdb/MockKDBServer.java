@@ -0,0 +1,119 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Minimal stand-in for a KDB process speaking the IPC protocol, so tests can run without a local q instance.
+ * Every query is answered synchronously by the supplied handler.
+ */
+public class MockKDBServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final Function<String, Object> handler;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "mock-kdb-server");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicInteger maxActiveRequests = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public MockKDBServer(Function<String, Object> handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0);
+        executor.submit(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getMaxActiveRequests() {
+        return maxActiveRequests.get();
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                executor.submit(() -> serve(socket));
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            // handshake: "user:password" followed by the capability byte and a terminating 0
+            int b;
+            do {
+                b = in.read();
+            } while (b > 0);
+            if (b < 0) {
+                return;
+            }
+            out.write(3);
+            out.flush();
+
+            byte[] header = new byte[8];
+            while (true) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    return;
+                }
+                int length = ByteBuffer.wrap(header, 4, 4).order(header[0] == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN).getInt();
+                byte[] message = new byte[length];
+                System.arraycopy(header, 0, message, 0, 8);
+                in.readFully(message, 8, length - 8);
+                String query = new String((char[]) new c().deserialize(message));
+
+                requests.incrementAndGet();
+                maxActiveRequests.accumulateAndGet(activeRequests.incrementAndGet(), Math::max);
+                try {
+                    out.write(new c().serialize(2, handler.apply(query), false));
+                    out.flush();
+                } finally {
+                    activeRequests.decrementAndGet();
+                }
+            }
+        } catch (Exception e) {
+            // connection dropped by client
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,93 @@
+package org.uwh.trino.kdb;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.*;
+
+public class TestKDBAdmissionController {
+    @Test
+    public void testFairQueuing() throws Exception {
+        KDBAdmissionController controller = new KDBAdmissionController("localhost:5000", 1, 60);
+        KDBAdmissionController.Ticket batch = new KDBAdmissionController.Ticket("batch", "alice", 0);
+        KDBAdmissionController.Ticket adhoc = new KDBAdmissionController.Ticket("adhoc", "alice", 0);
+        KDBAdmissionController.Ticket other = new KDBAdmissionController.Ticket("other", "bob", 0);
+        KDBAdmissionController.Ticket urgent = new KDBAdmissionController.Ticket("urgent", "carol", 5);
+
+        // occupy the only slot so that everything else queues
+        controller.acquire(new KDBAdmissionController.Ticket("running", "dave", 0));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            int queued = 0;
+            for (KDBAdmissionController.Ticket ticket : List.of(batch, batch, adhoc, other, urgent)) {
+                futures.add(executor.submit(() -> {
+                    controller.acquire(ticket);
+                    order.add(ticket.getQueryId());
+                    controller.release();
+                    return null;
+                }));
+                queued++;
+                while (controller.getQueued() < queued) {
+                    Thread.sleep(1);
+                }
+            }
+
+            controller.release();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // priority first, then alternating between users, and between queries of the same user
+        assertEquals(order, List.of("urgent", "batch", "other", "adhoc", "batch"));
+        assertEquals(controller.getInFlight(), 0);
+        assertEquals(controller.getQueued(), 0);
+
+        assertEquals(batch.getRequests(), 2);
+        assertEquals(batch.getQueuedRequests(), 2);
+        assertTrue(batch.getWaitNanos() > 0);
+        assertEquals(batch.getMaxQueueDepth(), 2);
+        assertEquals(urgent.getMaxQueueDepth(), 5);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        KDBAdmissionController controller = new KDBAdmissionController("localhost:5000", 1, 0);
+        KDBAdmissionController.Ticket ticket = new KDBAdmissionController.Ticket("q", "alice", 0);
+        controller.acquire(ticket);
+
+        assertThrows(TimeoutException.class, () -> controller.acquire(ticket));
+        assertEquals(controller.getQueued(), 0);
+
+        controller.release();
+        controller.acquire(ticket);
+        controller.release();
+        assertEquals(ticket.getRequests(), 2);
+        assertEquals(ticket.getQueuedRequests(), 0);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        KDBAdmissionController controller = new KDBAdmissionController("localhost:5000", 0, 0);
+        KDBAdmissionController.Ticket ticket = new KDBAdmissionController.Ticket("q", "alice", 0);
+        for (int i = 0; i < 10; i++) {
+            controller.acquire(ticket);
+        }
+        assertEquals(controller.getInFlight(), 0);
+        // requests are still counted for metrics
+        assertEquals(ticket.getRequests(), 10);
+        assertEquals(ticket.getQueuedRequests(), 0);
+    }
+}
@@ -0,0 +1,173 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.block.Block;
+import io.trino.spi.block.BlockBuilder;
+import io.trino.spi.connector.AggregateFunction;
+import io.trino.spi.connector.AggregationApplicationResult;
+import io.trino.spi.connector.Assignment;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.ConnectorTableHandle;
+import io.trino.spi.connector.SortItem;
+import io.trino.spi.connector.SortOrder;
+import io.trino.spi.expression.Call;
+import io.trino.spi.expression.ConnectorExpression;
+import io.trino.spi.expression.Constant;
+import io.trino.spi.expression.Variable;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.ArrayType;
+import io.trino.spi.type.BigintType;
+import io.trino.spi.type.BooleanType;
+import io.trino.spi.type.DateType;
+import io.trino.spi.type.DoubleType;
+import io.trino.spi.type.Type;
+import io.trino.spi.type.VarcharType;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static io.airlift.slice.Slices.utf8Slice;
+import static io.trino.spi.expression.StandardFunctions.GREATER_THAN_OPERATOR_FUNCTION_NAME;
+import static io.trino.spi.expression.StandardFunctions.MULTIPLY_FUNCTION_NAME;
+import static org.testng.Assert.*;
+
+public class TestKDBAggregateFunctions {
+    private static final KDBColumnHandle SYM = new KDBColumnHandle("sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+    private static final KDBColumnHandle NAME = new KDBColumnHandle("name", VarcharType.VARCHAR, KDBType.String, Optional.empty(), false);
+    private static final KDBColumnHandle PRICE = new KDBColumnHandle("price", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false);
+    private static final KDBColumnHandle SIZE = new KDBColumnHandle("size", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false);
+    private static final KDBColumnHandle DATE = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), false);
+    private static final Map<String, ColumnHandle> ASSIGNMENTS = Map.of("sym", SYM, "name", NAME, "price", PRICE, "size", SIZE, "date", DATE);
+    private static final KDBTableHandle TRADE = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        // metadata refreshes are not under test
+        server = new MockKDBServer(query -> new String[0]);
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testDistinct() {
+        assertEquals(query(distinct("count", BigintType.BIGINT, var("sym"))), "select col0: count {distinct x where not null x} sym from trade");
+        assertEquals(query(agg("approx_distinct", BigintType.BIGINT, var("name"))), "select col0: count distinct name from trade");
+        // distinct makes no difference to min and max
+        assertEquals(query(distinct("max", DoubleType.DOUBLE, var("price"))), "select col0: max price from trade");
+        assertTrue(apply(List.of(distinct("sum", DoubleType.DOUBLE, var("price"))), List.of()).isEmpty());
+    }
+
+    @Test
+    public void testMinMaxBy() {
+        assertEquals(query(agg("max_by", VarcharType.VARCHAR, var("sym"), var("price"))), "select col0: {x y?max y}[sym; price] from trade");
+        assertEquals(query(agg("min_by", DoubleType.DOUBLE, var("price"), var("date"))), "select col0: {x y?min y}[price; date] from trade");
+        // symbols have no order in q
+        assertTrue(apply(List.of(agg("max_by", DoubleType.DOUBLE, var("price"), var("sym"))), List.of()).isEmpty());
+        // without a non-null key the value is read past the end, which is an empty string rather than null
+        assertTrue(apply(List.of(agg("max_by", VarcharType.VARCHAR, var("name"), var("price"))), List.of()).isEmpty());
+
+        AggregationApplicationResult<ConnectorTableHandle> result = apply(List.of(agg("max_by", VarcharType.VARCHAR, var("sym"), var("price"))), List.of()).orElseThrow();
+        assertEquals(((KDBColumnHandle) result.getAssignments().get(0).getColumn()).getKdbType(), KDBType.Symbol);
+    }
+
+    @Test
+    public void testArbitraryAndArrayAgg() {
+        assertEquals(query(agg("arbitrary", VarcharType.VARCHAR, var("sym"))), "select col0: {first x where not null x} sym from trade");
+        // first of no strings is an empty string rather than null
+        assertTrue(apply(List.of(agg("arbitrary", VarcharType.VARCHAR, var("name"))), List.of()).isEmpty());
+        assertEquals(query(agg("array_agg", new ArrayType(DoubleType.DOUBLE), var("price"))), "select col0: {$[count x; enlist x; enlist (::)]} price from trade");
+
+        AggregationApplicationResult<ConnectorTableHandle> result = apply(List.of(agg("array_agg", new ArrayType(DoubleType.DOUBLE), var("price"))), List.of(SYM)).orElseThrow();
+        assertEquals(((KDBTableHandle) result.getHandle()).getTableName(), "select col0: price by sym from trade");
+        Assignment assignment = result.getAssignments().get(0);
+        assertEquals(((KDBColumnHandle) assignment.getColumn()).getKdbType(), KDBType.FloatArray);
+
+        assertTrue(apply(List.of(agg("array_agg", new ArrayType(VarcharType.VARCHAR), var("name"))), List.of()).isEmpty());
+    }
+
+    @Test
+    public void testArrayNulls() {
+        // no rows give a generic null, null elements keep the null of their type
+        BlockBuilder builder = KDBType.FloatArray.getTrinoType().createBlockBuilder(null, 2);
+        KDBType.FloatArray.writeBlock(builder, new Object[] {new double[] {1.0, Double.NaN}, null});
+        Block block = builder.build();
+        assertFalse(block.isNull(0));
+        Block elements = ((ArrayType) KDBType.FloatArray.getTrinoType()).getObject(block, 0);
+        assertEquals(DoubleType.DOUBLE.getDouble(elements, 0), 1.0);
+        assertTrue(elements.isNull(1));
+        assertTrue(block.isNull(1));
+    }
+
+    @Test
+    public void testExpressions() {
+        ConnectorExpression notional = new Call(DoubleType.DOUBLE, MULTIPLY_FUNCTION_NAME, List.of(var("price"), var("size")));
+        assertEquals(query(agg("sum", DoubleType.DOUBLE, notional)), "select col0: sum (price*size) from trade");
+        assertEquals(query(agg("min", DateType.DATE, var("date"))), "select col0: min date from trade");
+        assertEquals(query(new AggregateFunction("count", BigintType.BIGINT, List.of(), List.of(), false, Optional.empty())), "select col0: count i from trade");
+
+        // FILTER and ORDER BY stay in Trino
+        ConnectorExpression positive = new Call(BooleanType.BOOLEAN, GREATER_THAN_OPERATOR_FUNCTION_NAME, List.of(var("price"), new Constant(0.0, DoubleType.DOUBLE)));
+        assertTrue(apply(List.of(new AggregateFunction("sum", DoubleType.DOUBLE, List.of(var("size")), List.of(), false, Optional.of(positive))), List.of()).isEmpty());
+        assertTrue(apply(List.of(new AggregateFunction("array_agg", new ArrayType(DoubleType.DOUBLE), List.of(var("price")), List.of(new SortItem("size", SortOrder.ASC_NULLS_LAST)), false, Optional.empty())), List.of()).isEmpty());
+    }
+
+    @Test
+    public void testLimit() {
+        AggregateFunction count = new AggregateFunction("count", BigintType.BIGINT, List.of(), List.of(), false, Optional.empty());
+        KDBTableHandle limited = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.of(10), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        assertEquals(query(limited, count), "select col0: count i from trade where i<10");
+
+        KDBTableHandle filtered = new KDBTableHandle("", "trade", TupleDomain.withColumnDomains(Map.of(SYM, Domain.singleValue(VarcharType.VARCHAR, utf8Slice("A")))),
+                OptionalLong.of(10), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        assertEquals(query(filtered, count), "select col0: count i from (select [10] from trade where sym = `A)");
+
+        // the sort of a top-N is not part of the table query
+        KDBTableHandle topN = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.of(10), false, Optional.empty(), List.of(), List.of(), Optional.empty(),
+                List.of(new KDBSortItem(PRICE, false, false)));
+        assertTrue(metadata.applyAggregation(session, topN, List.of(count), ASSIGNMENTS, List.of(List.of())).isEmpty());
+    }
+
+    private String query(AggregateFunction function) {
+        return query(TRADE, function);
+    }
+
+    private String query(KDBTableHandle table, AggregateFunction function) {
+        return ((KDBTableHandle) metadata.applyAggregation(session, table, List.of(function), ASSIGNMENTS, List.of(List.of())).orElseThrow().getHandle()).getTableName();
+    }
+
+    private Optional<AggregationApplicationResult<ConnectorTableHandle>> apply(List<AggregateFunction> functions, List<ColumnHandle> grouping) {
+        return metadata.applyAggregation(session, TRADE, functions, ASSIGNMENTS, List.of(grouping));
+    }
+
+    private static AggregateFunction agg(String name, Type type, ConnectorExpression... args) {
+        return new AggregateFunction(name, type, List.of(args), List.of(), false, Optional.empty());
+    }
+
+    private static AggregateFunction distinct(String name, Type type, ConnectorExpression... args) {
+        return new AggregateFunction(name, type, List.of(args), List.of(), true, Optional.empty());
+    }
+
+    private static Variable var(String name) {
+        return new Variable(name, ((KDBColumnHandle) ASSIGNMENTS.get(name)).getType());
+    }
+}
@@ -0,0 +1,132 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.airlift.slice.Slices;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.ptf.Argument;
+import io.trino.spi.ptf.Descriptor;
+import io.trino.spi.ptf.ScalarArgument;
+import io.trino.spi.ptf.TableFunctionAnalysis;
+import io.trino.spi.type.BooleanType;
+import io.trino.spi.type.DateType;
+import io.trino.spi.type.VarcharType;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+public class TestKDBAsofJoin {
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        server = new MockKDBServer(query -> {
+            if (query.startsWith("{[t] p:`boolean$.Q.qp t;")) {
+                String table = query.substring(query.lastIndexOf('[') + 1, query.length() - 1);
+                switch (table) {
+                    case "trade":
+                        return describe(true, new String[] {"date", "sym", "time", "price"}, new char[] {'d', 's', 'p', 'f'});
+                    case "quote":
+                        return describe(true, new String[] {"date", "Sym", "time", "bid", "ask"}, new char[] {'d', 's', 'p', 'f', 'f'});
+                    case "fx":
+                        return describe(false, new String[] {"ccy", "time", "rate"}, new char[] {'s', 'p', 'f'});
+                }
+            } else if (query.equals("(count .Q.pv; string last .Q.pv)")) {
+                return new Object[] {2L, "2021.01.02".toCharArray()};
+            }
+            // metadata refreshes are not under test
+            return new String[0];
+        });
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testPartitionedJoin() {
+        TableFunctionAnalysis analysis = new AsofJoinFunction(metadata).analyze(session, null, arguments("trade", "quote", "sym", "time", false));
+
+        Descriptor returned = analysis.getReturnedType().orElseThrow();
+        assertEquals(returned.getFields().stream().map(Descriptor.Field::getName).collect(Collectors.toList()), List.of("date", "sym", "time", "price", "bid", "ask"));
+
+        AsofJoinFunction.AsofJoinHandle handle = (AsofJoinFunction.AsofJoinHandle) analysis.getHandle();
+        KDBTableHandle table = (KDBTableHandle) handle.getTableHandle();
+        assertTrue(table.isPartitioned());
+        assertEquals(table.getPartitions(), List.of("2021.01.01", "2021.01.02"));
+        assertEquals(table.getTableName(),
+                "{[partitions] aj[`sym`time; select from trade where date in partitions; select sym: Sym, time, bid, ask from quote where date in partitions]}");
+
+        // a split reads one partition
+        KDBColumnHandle date = handle.getColumns().get(0);
+        assertTrue(date.isPartitionColumn());
+        KDBTableHandle split = new KDBTableHandle(table.getNamespace(), table.getTableName(),
+                TupleDomain.withColumnDomains(Map.<ColumnHandle, Domain>of(date, Domain.singleValue(DateType.DATE, LocalDate.of(2021, 1, 2).toEpochDay()))),
+                table.getLimit(), true, table.getPartitionColumn(), table.getPartitions(), List.of(), Optional.empty());
+        assertEquals(split.toQuery(List.of(handle.getColumns().get(1), handle.getColumns().get(4)), OptionalInt.empty(), 1000, false),
+                "select sym, bid from ({[partitions] aj[`sym`time; select from trade where date in partitions; select sym: Sym, time, bid, ask from quote where date in partitions]})[enlist 2021.01.02] where date = 2021.01.02");
+
+        assertEquals(metadata.applyTableFunction(session, handle).orElseThrow().getColumnHandles(), handle.getColumns());
+    }
+
+    @Test
+    public void testPlainJoin() {
+        TableFunctionAnalysis analysis = new AsofJoinFunction(metadata).analyze(session, null, arguments("fx", "fx", null, "time", true));
+        KDBTableHandle table = (KDBTableHandle) ((AsofJoinFunction.AsofJoinHandle) analysis.getHandle()).getTableHandle();
+        assertFalse(table.isPartitioned());
+        assertEquals(table.getTableName(), "aj0[enlist `time; select from fx; select time from fx]");
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        AsofJoinFunction function = new AsofJoinFunction(metadata);
+        assertThrows(IllegalArgumentException.class, () -> function.analyze(session, null, arguments("trade", "quote", "sym", "timestamp", false)));
+        // the time column must be temporal
+        assertThrows(IllegalArgumentException.class, () -> function.analyze(session, null, arguments("trade", "quote", "time", "sym", false)));
+        assertThrows(IllegalArgumentException.class, () -> function.analyze(session, null, arguments("trade", "fx", "sym", "time", false)));
+        // quote is partitioned but fx is not, nothing would limit the partitions of quote to read
+        assertThrows(IllegalArgumentException.class, () -> function.analyze(session, null, arguments("fx", "quote", null, "time", false)));
+    }
+
+    private static Map<String, Argument> arguments(String left, String right, String by, String time, boolean rightTime) {
+        Map<String, Argument> arguments = new HashMap<>();
+        arguments.put("LEFT", new ScalarArgument(VarcharType.VARCHAR, Slices.utf8Slice(left)));
+        arguments.put("RIGHT", new ScalarArgument(VarcharType.VARCHAR, Slices.utf8Slice(right)));
+        arguments.put("BY", new ScalarArgument(VarcharType.VARCHAR, by == null ? null : Slices.utf8Slice(by)));
+        arguments.put("TIME", new ScalarArgument(VarcharType.VARCHAR, Slices.utf8Slice(time)));
+        arguments.put("RIGHT_TIME", new ScalarArgument(BooleanType.BOOLEAN, rightTime));
+        return arguments;
+    }
+
+    private static c.Dict describe(boolean partitioned, String[] columns, char[] types) {
+        String[] attributes = new String[columns.length];
+        Arrays.fill(attributes, "");
+        Object[] partitions = partitioned ? new Object[] {"2021.01.01".toCharArray(), "2021.01.02".toCharArray()} : new Object[0];
+        return new c.Dict(
+                new String[] {"partitioned", "columns", "types", "attributes", "partitions"},
+                new Object[] {partitioned, columns, types, attributes, partitions});
+    }
+}
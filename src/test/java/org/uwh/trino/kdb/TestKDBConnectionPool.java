@@ -0,0 +1,120 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.trino.spi.Page;
+import io.trino.spi.connector.DynamicFilter;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.BigintType;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.LongStream;
+
+import static org.testng.Assert.*;
+
+public class TestKDBConnectionPool {
+    private static final int ROWS = 1000;
+    private static final int POOL_SIZE = 4;
+
+    private MockKDBServer server;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        server = new MockKDBServer(query -> {
+            try {
+                // slow responses down so that concurrent page sources overlap
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new c.Flip(new c.Dict(new String[] {"v"}, new Object[] {LongStream.range(0, ROWS).toArray()}));
+        });
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testConcurrentPageSources() throws Exception {
+        KDBClientFactory factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty(), POOL_SIZE, 60, 60, 0);
+        KDBTableHandle table = new KDBTableHandle("", "atable", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        List<KDBColumnHandle> columns = List.of(new KDBColumnHandle("v", BigintType.BIGINT, KDBType.Long, Optional.empty(), false));
+
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> {
+                    KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, 50000, false, false, false, true, 0, Runnable::run, DynamicFilter.EMPTY, 0, Optional.empty());
+                    long sum = 0;
+                    while (!source.isFinished()) {
+                        Page page = source.getNextPage();
+                        assertEquals(page.getPositionCount(), ROWS);
+                        for (int pos = 0; pos < page.getPositionCount(); pos++) {
+                            sum += BigintType.BIGINT.getLong(page.getBlock(0), pos);
+                        }
+                    }
+                    source.close();
+                    return sum;
+                }));
+            }
+
+            for (Future<Long> result : results) {
+                assertEquals((long) result.get(), (long) ROWS * (ROWS - 1) / 2);
+            }
+        } finally {
+            executor.shutdownNow();
+            factory.close();
+        }
+
+        assertTrue(server.getMaxActiveRequests() > 1, "requests should run in parallel");
+        assertTrue(server.getMaxActiveRequests() <= POOL_SIZE, "requests in flight should be bounded by pool size");
+        assertTrue(server.getConnections() <= POOL_SIZE, "connections should be reused");
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        KDBConnectionPool pool = new KDBConnectionPool("localhost", server.getPort(), "user", "password", 1, 60, 1);
+        c connection = pool.borrow();
+        try {
+            pool.borrow();
+            fail("Expected pool to be exhausted");
+        } catch (TimeoutException e) {
+            // expected
+        } finally {
+            pool.release(connection);
+        }
+
+        // connection is handed out again once returned
+        assertSame(pool.borrow(), connection);
+        assertEquals(pool.getOpenConnections(), 1);
+        pool.close();
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        KDBConnectionPool pool = new KDBConnectionPool("localhost", server.getPort(), "user", "password", 2, 0, 1);
+        c connection = pool.borrow();
+        pool.release(connection);
+        assertEquals(pool.getOpenConnections(), 1);
+
+        // idle timeout of 0 evicts the returned connection on next checkout
+        c next = pool.borrow();
+        assertNotSame(next, connection);
+        assertEquals(pool.getOpenConnections(), 1);
+        pool.release(next);
+        pool.close();
+        assertEquals(pool.getOpenConnections(), 0);
+    }
+}
@@ -0,0 +1,160 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.connector.BasicRelationStatistics;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.JoinApplicationResult;
+import io.trino.spi.connector.JoinCondition;
+import io.trino.spi.connector.JoinStatistics;
+import io.trino.spi.connector.JoinType;
+import io.trino.spi.connector.ConnectorTableHandle;
+import io.trino.spi.expression.Variable;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.DoubleType;
+import io.trino.spi.type.VarcharType;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
+
+import static io.airlift.slice.Slices.utf8Slice;
+import static org.testng.Assert.*;
+
+public class TestKDBJoin {
+    private static final KDBColumnHandle TRADE_SYM = new KDBColumnHandle("sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+    private static final KDBColumnHandle PRICE = new KDBColumnHandle("price", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false);
+    private static final KDBColumnHandle REF_SYM = new KDBColumnHandle("Sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+    private static final KDBColumnHandle SECTOR = new KDBColumnHandle("sector", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+    private static final KDBColumnHandle NAME = new KDBColumnHandle("name", VarcharType.VARCHAR, KDBType.String, Optional.empty(), false);
+    private static final Map<String, ColumnHandle> LEFT = Map.of("sym", TRADE_SYM, "price", PRICE);
+    private static final Map<String, ColumnHandle> RIGHT = Map.of("sym_0", REF_SYM, "sector", SECTOR);
+    private static final List<JoinCondition> ON_SYM = List.of(new JoinCondition(JoinCondition.Operator.EQUAL, new Variable("sym", VarcharType.VARCHAR), new Variable("sym_0", VarcharType.VARCHAR)));
+    private static final TupleDomain<ColumnHandle> SMALL_CAPS = TupleDomain.withColumnDomains(Map.of(SECTOR, Domain.singleValue(VarcharType.VARCHAR, utf8Slice("small"))));
+    private static final KDBTableHandle TRADE = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+    private static final KDBTableHandle REF = new KDBTableHandle("", "ref", SMALL_CAPS, OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        // metadata refreshes are not under test
+        server = new MockKDBServer(query -> new String[0]);
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testInnerJoin() {
+        JoinApplicationResult<ConnectorTableHandle> result = metadata.applyJoin(session, JoinType.INNER, TRADE, REF, ON_SYM, LEFT, RIGHT, stats(1000, 100, 500)).orElseThrow();
+        KDBTableHandle handle = (KDBTableHandle) result.getTableHandle();
+        assertTrue(handle.isQuery());
+
+        KDBColumnHandle price = (KDBColumnHandle) result.getLeftColumnHandles().get(PRICE);
+        KDBColumnHandle sector = (KDBColumnHandle) result.getRightColumnHandles().get(SECTOR);
+        assertEquals(result.getLeftColumnHandles().size(), 2);
+        assertEquals(result.getRightColumnHandles().size(), 2);
+        assertEquals(price.getType(), DoubleType.DOUBLE);
+
+        String join = "ej[enlist `k0; (select k0: sym, " + columns(result.getLeftColumnHandles()) + " from trade); "
+                + "(select from (select k0: Sym, " + columns(result.getRightColumnHandles()) + " from ref where sector = `small) where not null k0)]";
+        assertEquals(handle.getTableName(), join);
+        assertEquals(handle.toQuery(List.of(price, sector), OptionalInt.empty(), 1000, false),
+                "select " + price.getName() + ", " + sector.getName() + " from (" + join + ")");
+    }
+
+    @Test
+    public void testLeftJoin() {
+        JoinApplicationResult<ConnectorTableHandle> result = metadata.applyJoin(session, JoinType.LEFT_OUTER, TRADE, REF, ON_SYM, LEFT, RIGHT, stats(1000, 100, 1000)).orElseThrow();
+        assertTrue(((KDBTableHandle) result.getTableHandle()).getTableName().startsWith("{[k;l;r] ej[k;l;r] uj l where not (k#l) in k#r}[enlist `k0; "));
+
+        // unmatched rows would get empty rather than null strings
+        Map<String, ColumnHandle> withName = Map.of("sym_0", REF_SYM, "name", NAME);
+        assertTrue(metadata.applyJoin(session, JoinType.LEFT_OUTER, TRADE, REF, ON_SYM, LEFT, withName, stats(1000, 100, 1000)).isEmpty());
+        assertTrue(metadata.applyJoin(session, JoinType.INNER, TRADE, REF, ON_SYM, LEFT, withName, stats(1000, 100, 1000)).isPresent());
+    }
+
+    @Test
+    public void testNotPushedDown() {
+        // the join would grow the data, or its size is unknown
+        assertTrue(metadata.applyJoin(session, JoinType.INNER, TRADE, REF, ON_SYM, LEFT, RIGHT, stats(1000, 100, 5000)).isEmpty());
+        assertTrue(metadata.applyJoin(session, JoinType.INNER, TRADE, REF, ON_SYM, LEFT, RIGHT, new Statistics(Optional.empty(), Optional.empty(), Optional.empty())).isEmpty());
+
+        assertTrue(metadata.applyJoin(session, JoinType.FULL_OUTER, TRADE, REF, ON_SYM, LEFT, RIGHT, stats(1000, 100, 500)).isEmpty());
+        assertTrue(metadata.applyJoin(session, JoinType.INNER, TRADE, REF, List.of(), LEFT, RIGHT, stats(1000, 100, 500)).isEmpty());
+        assertTrue(metadata.applyJoin(session, JoinType.INNER, TRADE, REF,
+                List.of(new JoinCondition(JoinCondition.Operator.LESS_THAN, new Variable("sym", VarcharType.VARCHAR), new Variable("sym_0", VarcharType.VARCHAR))),
+                LEFT, RIGHT, stats(1000, 100, 500)).isEmpty());
+        assertTrue(metadata.applyJoin(session, JoinType.INNER, TRADE, REF,
+                List.of(new JoinCondition(JoinCondition.Operator.EQUAL, new Variable("price", DoubleType.DOUBLE), new Variable("sym_0", VarcharType.VARCHAR))),
+                LEFT, RIGHT, stats(1000, 100, 500)).isEmpty());
+
+        KDBTableHandle partitioned = new KDBTableHandle("", "quote", TupleDomain.all(), OptionalLong.empty(), true, Optional.empty(), List.of(), List.of(), Optional.empty());
+        assertTrue(metadata.applyJoin(session, JoinType.INNER, partitioned, REF, ON_SYM, LEFT, RIGHT, stats(1000, 100, 500)).isEmpty());
+
+        ConnectorSession disabled = TestingConnectorSession.builder()
+                .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+                .setPropertyValues(Map.of(Config.SESSION_PUSH_DOWN_JOIN, false))
+                .build();
+        assertTrue(metadata.applyJoin(disabled, JoinType.INNER, TRADE, REF, ON_SYM, LEFT, RIGHT, stats(1000, 100, 500)).isEmpty());
+    }
+
+    private static String columns(Map<ColumnHandle, ColumnHandle> mapping) {
+        return mapping.entrySet().stream()
+                .map(e -> ((KDBColumnHandle) e.getValue()).getName() + ": " + ((KDBColumnHandle) e.getKey()).getName())
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    private static JoinStatistics stats(long left, long right, long join) {
+        return new Statistics(
+                Optional.of(new BasicRelationStatistics(left, left * 16)),
+                Optional.of(new BasicRelationStatistics(right, right * 16)),
+                Optional.of(new BasicRelationStatistics(join, join * 16)));
+    }
+
+    private static class Statistics implements JoinStatistics {
+        private final Optional<BasicRelationStatistics> left;
+        private final Optional<BasicRelationStatistics> right;
+        private final Optional<BasicRelationStatistics> join;
+
+        Statistics(Optional<BasicRelationStatistics> left, Optional<BasicRelationStatistics> right, Optional<BasicRelationStatistics> join) {
+            this.left = left;
+            this.right = right;
+            this.join = join;
+        }
+
+        @Override
+        public Optional<BasicRelationStatistics> getLeftStatistics() {
+            return left;
+        }
+
+        @Override
+        public Optional<BasicRelationStatistics> getRightStatistics() {
+            return right;
+        }
+
+        @Override
+        public Optional<BasicRelationStatistics> getJoinStatistics() {
+            return join;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.connector.ColumnMetadata;
+import io.trino.spi.connector.SchemaTableName;
+import io.trino.spi.statistics.ColumnStatistics;
+import io.trino.spi.statistics.DoubleRange;
+import io.trino.spi.statistics.Estimate;
+import io.trino.spi.statistics.TableStatistics;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+public class TestKDBMetadataSnapshot {
+    private Path dir;
+
+    @BeforeMethod
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("kdb-snapshot");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDir() throws Exception {
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path file = dir.resolve("metadata.snapshot");
+        snapshot().write(file);
+
+        KDBMetadataSnapshot read = KDBMetadataSnapshot.read(file).orElseThrow();
+        assertEquals(read.getSchemas(), Map.of("", "", "ns", "ns"));
+        assertEquals(read.getTables(), Map.of(new SchemaTableName("default", "trade"), "Trade"));
+
+        KDBClient.TableDescription trade = read.getDescriptions().get("Trade");
+        assertEquals(trade.getPartitions(), List.of("2021.05.28", "2021.05.29"));
+        assertEquals(trade.getPartitionColumn().get().getName(), "date");
+        assertTrue(trade.getPartitionColumn().get().isPartitionColumn());
+        assertEquals(trade.getColumns(), columns(true));
+        assertEquals(trade.getColumns().get(0).getProperties(), columns(true).get(0).getProperties());
+        assertEquals(trade.getColumns().get(1).getProperties().get("kdb.attribute"), Optional.of(KDBAttribute.Parted));
+        assertEquals(read.getColumns().get(".ns.ref").get(0).getProperties().get("kdb.isPartitionColumn"), false);
+
+        KDBMetadataSnapshot.TableStats stats = read.getStats().get(0);
+        assertEquals(stats.getTableName(), "Trade");
+        assertTrue(stats.isCalcStatsOnTheFly());
+        assertEquals(stats.getStatistics(), statistics());
+    }
+
+    @Test
+    public void testCorruptFileIsIgnored() throws Exception {
+        Path file = dir.resolve("metadata.snapshot");
+        snapshot().write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(20);
+            raf.write(raf.read() ^ 0xff);
+        }
+        assertTrue(KDBMetadataSnapshot.read(file).isEmpty());
+
+        Files.write(file, new byte[] {1, 2, 3});
+        assertTrue(KDBMetadataSnapshot.read(file).isEmpty());
+        assertTrue(KDBMetadataSnapshot.read(dir.resolve("missing")).isEmpty());
+    }
+
+    @Test
+    public void testOtherVersionIsIgnored() throws Exception {
+        Path file = dir.resolve("metadata.snapshot");
+        snapshot().write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(4);
+            raf.writeInt(KDBMetadataSnapshot.VERSION + 1);
+        }
+        assertTrue(KDBMetadataSnapshot.read(file).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        Path file = dir.resolve("metadata.snapshot");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                writes.add(executor.submit(() -> {
+                    snapshot().write(file);
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(KDBMetadataSnapshot.read(file).isPresent());
+        // every write used a temporary file of its own and cleaned it up
+        try (var files = Files.list(dir)) {
+            assertEquals(files.collect(Collectors.toList()), List.of(file));
+        }
+    }
+
+    private static KDBMetadataSnapshot snapshot() {
+        List<ColumnMetadata> columns = columns(true);
+        return new KDBMetadataSnapshot(
+                Map.of("", "", "ns", "ns"),
+                Map.of(new SchemaTableName("default", "trade"), "Trade"),
+                Map.of("Trade", new KDBClient.TableDescription(columns, Optional.of(KDBClient.columnMetaToHandle(columns.get(0))), List.of("2021.05.28", "2021.05.29"))),
+                Map.of(".ns.ref", columns(false)),
+                List.of(new KDBMetadataSnapshot.TableStats("", "Trade", true, statistics())));
+    }
+
+    private static List<ColumnMetadata> columns(boolean partitioned) {
+        return KDBClient.toColumnMetadata(new String[] {"date", "Sym", "price"}, new char[] {'d', 's', 'f'}, new String[] {"", "p", ""}, partitioned);
+    }
+
+    private static TableStatistics statistics() {
+        List<ColumnMetadata> columns = columns(true);
+        return TableStatistics.builder()
+                .setRowCount(Estimate.of(1000))
+                .setColumnStatistics(KDBClient.columnMetaToHandle(columns.get(1)), new ColumnStatistics(Estimate.of(0.1), Estimate.of(20), Estimate.of(8000), Optional.empty()))
+                .setColumnStatistics(KDBClient.columnMetaToHandle(columns.get(2)), new ColumnStatistics(Estimate.zero(), Estimate.unknown(), Estimate.of(8000), Optional.of(new DoubleRange(1.5, 99.5))))
+                .build();
+    }
+}
@@ -0,0 +1,103 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.trino.spi.connector.ColumnMetadata;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.SchemaTableName;
+import io.trino.spi.connector.SchemaTablePrefix;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+public class TestKDBNamespaceMetadata {
+    private static final String LIST_TABLES = "(uj/) ({[ns] ns:`$\".\", string ns; ts: tables ns; ([] ns:(count ts)#ns; table:ts)} each ((enlist `) , key `))";
+
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        server = new MockKDBServer(query -> {
+            queries.add(query);
+            if (query.equals(LIST_TABLES)) {
+                return new c.Flip(new c.Dict(new String[] {"ns", "table"}, new Object[] {new String[] {".", ".", ".ns"}, new String[] {"Trade", "quote", "ref"}}));
+            } else if (query.startsWith("exec distinct ns")) {
+                return new String[] {".", ".ns"};
+            } else if (query.startsWith("{[ns] ts:tables ns;")) {
+                boolean root = query.endsWith("[`.]");
+                return new c.Flip(new c.Dict(
+                        new String[] {"table", "partitioned", "columns", "types", "attributes"},
+                        root ? new Object[] {
+                                new String[] {"Trade", "quote"},
+                                new boolean[] {true, false},
+                                new Object[] {new String[] {"date", "sym", "price"}, new String[] {"sym", "bid"}},
+                                new Object[] {new char[] {'d', 's', 'f'}, new char[] {'s', 'f'}},
+                                new Object[] {new String[] {"", "p", ""}, new String[] {"", ""}}}
+                             : new Object[] {
+                                new String[] {"ref"},
+                                new boolean[] {false},
+                                new Object[] {new String[] {"id"}},
+                                new Object[] {new char[] {'j'}},
+                                new Object[] {new String[] {"u"}}}));
+            }
+            throw new IllegalArgumentException("Unexpected query: " + query);
+        });
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testOneCallPerNamespace() {
+        queries.clear();
+        Map<SchemaTableName, List<ColumnMetadata>> columns = metadata.listTableColumns(session, new SchemaTablePrefix());
+
+        assertEquals(columns.keySet(), Set.of(
+                new SchemaTableName("default", "trade"),
+                new SchemaTableName("default", "quote"),
+                new SchemaTableName("ns", "ref")));
+        assertEquals(columns.get(new SchemaTableName("default", "trade")).get(0).getProperties().get("kdb.isPartitionColumn"), true);
+        assertEquals(columns.get(new SchemaTableName("ns", "ref")).get(0).getProperties().get("kdb.attribute"), Optional.of(KDBAttribute.Unique));
+
+        List<String> describes = queries.stream().filter(q -> !q.equals(LIST_TABLES) && !q.startsWith("exec distinct ns")).collect(Collectors.toList());
+        assertEquals(describes.size(), 2, describes.toString());
+        assertTrue(describes.get(0).endsWith("[`.]"));
+        assertTrue(describes.get(1).endsWith("[`.ns]"));
+
+        // the columns are cached for later lookups of the individual tables
+        queries.clear();
+        KDBTableHandle handle = new KDBTableHandle("ns", "ref", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        assertEquals(metadata.getColumns(session, handle).size(), 1);
+        assertTrue(queries.isEmpty());
+    }
+
+    @Test
+    public void testSchemaPrefix() {
+        queries.clear();
+        Map<SchemaTableName, List<ColumnMetadata>> columns = metadata.listTableColumns(session, new SchemaTablePrefix("ns"));
+        assertEquals(columns.keySet(), Set.of(new SchemaTableName("ns", "ref")));
+        assertTrue(queries.stream().noneMatch(q -> q.endsWith("[`.]")));
+    }
+}
@@ -0,0 +1,150 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.trino.spi.Page;
+import io.trino.spi.block.Block;
+import io.trino.spi.block.DictionaryBlock;
+import io.trino.spi.block.LongArrayBlock;
+import io.trino.spi.type.BigintType;
+import io.trino.spi.type.UuidType;
+import io.trino.spi.type.VarcharType;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static io.trino.testing.TestingConnectorSession.SESSION;
+import static org.testng.Assert.*;
+
+public class TestKDBPageDecoder {
+    private static KDBColumnHandle column(String name, KDBType type) {
+        return new KDBColumnHandle(name, type.getTrinoType(), type, Optional.empty(), false);
+    }
+
+    @DataProvider
+    public Object[][] symbolDictionary() {
+        return new Object[][] {{false}, {true}};
+    }
+
+    @Test(dataProvider = "symbolDictionary")
+    public void testMatchesFlipPath(boolean symbolDictionary) throws Exception {
+        List<KDBColumnHandle> columns = List.of(
+                column("booleans", KDBType.Boolean),
+                column("bytes", KDBType.Byte),
+                column("shorts", KDBType.Short),
+                column("ints", KDBType.Int),
+                column("longs", KDBType.Long),
+                column("reals", KDBType.Real),
+                column("floats", KDBType.Float),
+                column("chars", KDBType.Char),
+                column("strings", KDBType.String),
+                column("symbols", KDBType.Symbol),
+                column("dates", KDBType.Date),
+                column("times", KDBType.Time),
+                column("minutes", KDBType.Minute),
+                column("seconds", KDBType.Second));
+
+        c.Flip flip = new c.Flip(new c.Dict(
+                columns.stream().map(KDBColumnHandle::getName).toArray(String[]::new),
+                new Object[] {
+                        new boolean[] {true, false, true},
+                        new byte[] {1, -2, 3},
+                        new short[] {1, Short.MIN_VALUE, 3},
+                        new int[] {Integer.MIN_VALUE, 2, 3},
+                        new long[] {1, 2, Long.MIN_VALUE},
+                        new float[] {1.5f, Float.NaN, 3},
+                        new double[] {Double.NaN, 2.25, 3},
+                        new char[] {'a', 'é', ' '},
+                        new Object[] {"hello".toCharArray(), "".toCharArray(), "grüß".toCharArray()},
+                        new String[] {"ibm", "", "société"},
+                        new LocalDate[] {LocalDate.of(2022, 1, 1), LocalDate.of(1999, 12, 31), LocalDate.of(2000, 1, 1)},
+                        new LocalTime[] {LocalTime.of(9, 30, 0, 123_000_000), LocalTime.MIDNIGHT, LocalTime.of(23, 59, 59)},
+                        new c.Minute[] {new c.Minute(1), new c.Minute(Integer.MIN_VALUE), new c.Minute(600)},
+                        new c.Second[] {new c.Second(59), new c.Second(3600), new c.Second(Integer.MIN_VALUE)}
+                }));
+
+        Page expected = KDBClient.toPage(columns, flip, false);
+        Page actual = KDBPageDecoder.decode(columns, new c().serialize(2, flip, false), symbolDictionary).orElseThrow();
+
+        assertEquals(actual.getPositionCount(), 3);
+        assertEquals(actual.getChannelCount(), columns.size());
+        for (int channel = 0; channel < columns.size(); channel++) {
+            for (int pos = 0; pos < 3; pos++) {
+                assertEquals(
+                        columns.get(channel).getType().getObjectValue(SESSION, actual.getBlock(channel), pos),
+                        columns.get(channel).getType().getObjectValue(SESSION, expected.getBlock(channel), pos),
+                        columns.get(channel).getName() + "[" + pos + "]");
+            }
+        }
+    }
+
+    @Test
+    public void testLittleEndianLongs() {
+        // 0x01 little endian, message type, not compressed, unused, total length
+        ByteBuffer buf = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put((byte) 1).put((byte) 2).put((byte) 0).put((byte) 0).putInt(0);
+        buf.put((byte) 98).put((byte) 0).put((byte) 99);
+        buf.put((byte) 11).put((byte) 0).putInt(1).put("v".getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+        buf.put((byte) 0).put((byte) 0).putInt(1);
+        buf.put((byte) 7).put((byte) 0).putInt(3).putLong(42).putLong(Long.MIN_VALUE).putLong(-1);
+
+        Page page = KDBPageDecoder.decode(List.of(column("v", KDBType.Long)), buf.array(), true).orElseThrow();
+        assertTrue(page.getBlock(0) instanceof LongArrayBlock);
+        assertEquals(BigintType.BIGINT.getLong(page.getBlock(0), 0), 42);
+        assertTrue(page.getBlock(0).isNull(1));
+        assertEquals(BigintType.BIGINT.getLong(page.getBlock(0), 2), -1);
+    }
+
+    @Test
+    public void testFallsBackForUnsupportedColumns() throws Exception {
+        c.Flip flip = new c.Flip(new c.Dict(new String[] {"id", "v"}, new Object[] {new UUID[] {UUID.randomUUID()}, new long[] {1}}));
+        byte[] message = new c().serialize(2, flip, false);
+
+        List<KDBColumnHandle> columns = List.of(column("id", KDBType.GUID), column("v", KDBType.Long));
+        assertTrue(KDBPageDecoder.decode(columns, message, true).isEmpty());
+
+        // the client falls back to c.Flip
+        Page page = KDBClient.toPage(columns, (Object) message, true);
+        assertEquals(UuidType.UUID.getObjectValue(SESSION, page.getBlock(0), 0).toString().length(), 36);
+        assertEquals(BigintType.BIGINT.getLong(page.getBlock(1), 0), 1);
+
+        // declared type does not match what KDB sent
+        assertTrue(KDBPageDecoder.decode(List.of(column("id", KDBType.Long), column("v", KDBType.Long)), message, true).isEmpty());
+    }
+
+    @Test
+    public void testSymbolDictionary() throws Exception {
+        String[] tickers = new String[20];
+        for (int i = 0; i < tickers.length; i++) {
+            tickers[i] = "sym" + i;
+        }
+        String[] symbols = new String[5000];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = i % 100 == 0 ? "" : tickers[(i * 7) % tickers.length];
+        }
+        c.Flip flip = new c.Flip(new c.Dict(new String[] {"sym"}, new Object[] {symbols}));
+        List<KDBColumnHandle> columns = List.of(column("sym", KDBType.Symbol));
+
+        Block direct = KDBPageDecoder.decode(columns, new c().serialize(2, flip, false), true).orElseThrow().getBlock(0);
+        Block fromFlip = KDBClient.toPage(columns, flip, true).getBlock(0);
+        for (Block block : List.of(direct, fromFlip)) {
+            assertTrue(block instanceof DictionaryBlock);
+            // the tickers plus null
+            assertEquals(((DictionaryBlock) block).getDictionary().getPositionCount(), tickers.length + 1);
+            for (int pos = 0; pos < symbols.length; pos++) {
+                if (symbols[pos].isEmpty()) {
+                    assertTrue(block.isNull(pos));
+                } else {
+                    assertEquals(VarcharType.VARCHAR.getSlice(block, pos).toStringUtf8(), symbols[pos]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.trino.spi.Page;
+import io.trino.spi.connector.DynamicFilter;
+import io.trino.spi.metrics.Count;
+import io.trino.spi.metrics.Metric;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.BigintType;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.LongStream;
+
+import static org.testng.Assert.*;
+
+public class TestKDBPageSource {
+    private static final int ROWS = 120;
+    private static final int PAGE_SIZE = 50;
+    private static final Pattern CURSOR_FETCH = Pattern.compile("\\[`(\\w+);(\\d+);(\\d+)]$");
+
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private ExecutorService executor;
+
+    private final KDBTableHandle table = new KDBTableHandle("", "atable", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+    private final List<KDBColumnHandle> columns = List.of(new KDBColumnHandle("v", BigintType.BIGINT, KDBType.Long, Optional.empty(), false));
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        long[] data = LongStream.range(0, ROWS).toArray();
+        server = new MockKDBServer(query -> {
+            queries.add(query);
+            Matcher m = CURSOR_FETCH.matcher(query);
+            if (m.find()) {
+                int start = Math.min(ROWS, Integer.parseInt(m.group(2)));
+                int end = Math.min(ROWS, start + Integer.parseInt(m.group(3)));
+                return new c.Flip(new c.Dict(new String[] {"v"}, new Object[] {Arrays.copyOfRange(data, start, end)}));
+            } else if (query.startsWith("delete ")) {
+                return ".trino.cursor";
+            }
+            return new c.Flip(new c.Dict(new String[] {"v"}, new Object[] {data}));
+        });
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() throws Exception {
+        executor.shutdownNow();
+        factory.close();
+        server.close();
+    }
+
+    @BeforeMethod
+    public void reset() {
+        queries.clear();
+    }
+
+    @Test
+    public void testCursorPaging() throws Exception {
+        KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, PAGE_SIZE, false, true, false, true, 0, Runnable::run, DynamicFilter.EMPTY, 0, Optional.empty());
+        long rows = 0;
+        while (!source.isFinished()) {
+            Page page = source.getNextPage();
+            for (int pos = 0; pos < page.getPositionCount(); pos++) {
+                assertEquals(BigintType.BIGINT.getLong(page.getBlock(0), pos), rows++);
+            }
+        }
+        source.close();
+
+        assertEquals(rows, ROWS);
+        assertEquals(queries.size(), 3);
+        // the table query runs exactly once, later pages only slice the stored result
+        assertTrue(queries.get(0).startsWith(".trino.cursor.c"));
+        assertTrue(queries.get(0).contains("select v from atable; "));
+        for (String query : queries.subList(1, queries.size())) {
+            assertFalse(query.contains("atable"));
+        }
+    }
+
+    @Test
+    public void testCursorDroppedOnEarlyClose() throws Exception {
+        KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, PAGE_SIZE, false, true, false, true, 0, Runnable::run, DynamicFilter.EMPTY, 0, Optional.empty());
+        source.getNextPage();
+        assertFalse(source.isFinished());
+        source.close();
+
+        assertEquals(queries.size(), 2);
+        assertTrue(queries.get(1).matches("delete c[0-9a-f]+ from `.trino.cursor"));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, PAGE_SIZE, false, true, false, true, 2, executor, DynamicFilter.EMPTY, 0, Optional.empty());
+        long rows = 0;
+        boolean buffered = false;
+        while (!source.isFinished()) {
+            source.isBlocked().get(10, TimeUnit.SECONDS);
+            buffered |= source.getMemoryUsage() > 0;
+            Page page = source.getNextPage();
+            if (page == null) {
+                continue;
+            }
+            for (int pos = 0; pos < page.getPositionCount(); pos++) {
+                assertEquals(BigintType.BIGINT.getLong(page.getBlock(0), pos), rows++);
+            }
+        }
+        source.close();
+
+        assertEquals(rows, ROWS);
+        assertTrue(buffered);
+        // fetches queued behind the last page never reach KDB
+        assertEquals(queries.size(), 3);
+    }
+
+    @Test
+    public void testPrefetchCursorDroppedOnEarlyClose() throws Exception {
+        KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, PAGE_SIZE, false, true, false, true, 1, executor, DynamicFilter.EMPTY, 0, Optional.empty());
+        source.isBlocked().get(10, TimeUnit.SECONDS);
+        assertNotNull(source.getNextPage());
+        source.close();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queries.stream().noneMatch(q -> q.startsWith("delete ")) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(queries.get(queries.size() - 1).matches("delete c[0-9a-f]+ from `.trino.cursor"));
+    }
+
+    @Test
+    public void testWaitsForDynamicFilter() throws Exception {
+        TestingDynamicFilter dynamicFilter = new TestingDynamicFilter(Set.of(columns.get(0)));
+        KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, PAGE_SIZE, false, false, false, true, 0, Runnable::run, dynamicFilter, 10_000, Optional.empty());
+
+        CompletableFuture<?> blocked = source.isBlocked();
+        assertFalse(blocked.isDone());
+        assertNull(source.getNextPage());
+        assertTrue(queries.isEmpty());
+
+        dynamicFilter.complete(TupleDomain.withColumnDomains(Map.of(columns.get(0), Domain.multipleValues(BigintType.BIGINT, List.of(1L, 2L)))));
+        blocked.get(10, TimeUnit.SECONDS);
+        assertNotNull(source.getNextPage());
+        source.close();
+
+        assertEquals(queries.size(), 1);
+        assertTrue(queries.get(0).endsWith("from atable where v in (1; 2)"), queries.get(0));
+    }
+
+    @Test
+    public void testDynamicFilterWaitTimesOut() throws Exception {
+        TestingDynamicFilter dynamicFilter = new TestingDynamicFilter(Set.of(columns.get(0)));
+        KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, PAGE_SIZE, false, false, false, true, 0, Runnable::run, dynamicFilter, 50, Optional.empty());
+
+        source.isBlocked().get(10, TimeUnit.SECONDS);
+        assertNotNull(source.getNextPage());
+        source.close();
+
+        assertEquals(queries.size(), 1);
+        assertFalse(queries.get(0).contains("where"));
+    }
+
+    @Test
+    public void testDynamicFilterExcludesAllRows() throws Exception {
+        TestingDynamicFilter dynamicFilter = new TestingDynamicFilter(Set.of(columns.get(0)));
+        dynamicFilter.complete(TupleDomain.none());
+        KDBPageSource source = new KDBPageSource(factory.getDefaultClient(), table, columns, PAGE_SIZE, false, false, false, true, 0, Runnable::run, dynamicFilter, 10_000, Optional.empty());
+
+        assertNull(source.getNextPage());
+        assertTrue(source.isFinished());
+        assertTrue(queries.isEmpty());
+    }
+
+    @Test
+    public void testSegmentMetrics() throws Exception {
+        KDBPageSource source = new KDBPageSource(
+                factory.getDefaultClient().withTicket(new KDBAdmissionController.Ticket("query", "user", 0)),
+                table, columns, PAGE_SIZE, false, true, false, true, 0, Runnable::run, DynamicFilter.EMPTY, 0, Optional.of(":/disk1/db"));
+        while (!source.isFinished()) {
+            source.getNextPage();
+        }
+        source.close();
+
+        Map<String, Metric<?>> metrics = source.getMetrics().getMetrics();
+        assertEquals(((Count<?>) metrics.get("kdbSegment[:/disk1/db].rows")).getTotal(), ROWS);
+        assertEquals(((Count<?>) metrics.get("kdbSegment[:/disk1/db].bytes")).getTotal(), source.getCompletedBytes());
+        assertEquals(((Count<?>) metrics.get("kdbRequests")).getTotal(), queries.size());
+    }
+}
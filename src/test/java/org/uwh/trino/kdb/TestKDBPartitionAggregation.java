@@ -0,0 +1,93 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.connector.AggregateFunction;
+import io.trino.spi.connector.AggregationApplicationResult;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.ConnectorTableHandle;
+import io.trino.spi.expression.Variable;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.DateType;
+import io.trino.spi.type.DoubleType;
+import io.trino.spi.type.VarcharType;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+import static io.airlift.slice.Slices.utf8Slice;
+import static org.testng.Assert.*;
+
+public class TestKDBPartitionAggregation {
+    private static final KDBColumnHandle DATE = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+    private static final KDBColumnHandle SYM = new KDBColumnHandle("sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+    private static final KDBColumnHandle PRICE = new KDBColumnHandle("price", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false);
+    private static final Map<String, ColumnHandle> ASSIGNMENTS = Map.of("date", DATE, "sym", SYM, "price", PRICE);
+    private static final List<AggregateFunction> SUM_PRICE = List.of(new AggregateFunction("sum", DoubleType.DOUBLE, List.of(new Variable("price", DoubleType.DOUBLE)), List.of(), false, Optional.empty()));
+    private static final List<String> PARTITIONS = List.of("2021.01.01", "2021.01.02", "2021.01.03");
+
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        // metadata refreshes are not under test
+        server = new MockKDBServer(query -> new String[0]);
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testGroupedByPartition() {
+        TupleDomain<ColumnHandle> constraint = TupleDomain.withColumnDomains(Map.of(
+                DATE, Domain.multipleValues(DateType.DATE, List.of(LocalDate.of(2021, 1, 2).toEpochDay(), LocalDate.of(2021, 1, 3).toEpochDay())),
+                SYM, Domain.singleValue(VarcharType.VARCHAR, utf8Slice("A"))));
+        KDBTableHandle trade = new KDBTableHandle("", "trade", constraint, OptionalLong.empty(), true, Optional.of(DATE), PARTITIONS, List.of(), Optional.empty());
+
+        KDBTableHandle handle = aggregate(trade, List.of(DATE, SYM));
+        assertTrue(handle.isQuery());
+        assertTrue(handle.isPartitioned());
+        assertEquals(handle.getPartitions(), PARTITIONS);
+        assertEquals(handle.getTableName(), "{[partitions] select col0: sum price by date, sym from trade where date in partitions, date in (2021.01.02; 2021.01.03), sym = `A}");
+        // only the partition column is kept to prune splits
+        assertEquals(handle.getConstraint(), constraint.filter((col, domain) -> col.equals(DATE)));
+
+        KDBTableHandle split = new KDBTableHandle(handle.getNamespace(), handle.getTableName(),
+                handle.getConstraint().intersect(TupleDomain.withColumnDomains(Map.of(DATE, Domain.singleValue(DateType.DATE, LocalDate.of(2021, 1, 3).toEpochDay())))),
+                handle.getLimit(), true, handle.getPartitionColumn(), handle.getPartitions(), List.of(), Optional.empty());
+        assertEquals(split.toQuery(List.of(new KDBColumnHandle("col0", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false), SYM), OptionalInt.empty(), 1000, false),
+                "select col0, sym from ({[partitions] select col0: sum price by date, sym from trade where date in partitions, date in (2021.01.02; 2021.01.03), sym = `A})[enlist 2021.01.03] where date = 2021.01.03");
+    }
+
+    @Test
+    public void testNotGroupedByPartition() {
+        KDBTableHandle trade = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.empty(), true, Optional.of(DATE), PARTITIONS, List.of(), Optional.empty());
+
+        KDBTableHandle handle = aggregate(trade, List.of(SYM));
+        assertFalse(handle.isPartitioned());
+        assertEquals(handle.getTableName(), "select col0: sum price by sym from trade");
+    }
+
+    private KDBTableHandle aggregate(KDBTableHandle table, List<ColumnHandle> grouping) {
+        AggregationApplicationResult<ConnectorTableHandle> result = metadata.applyAggregation(session, table, SUM_PRICE, ASSIGNMENTS, List.of(grouping)).orElseThrow();
+        return (KDBTableHandle) result.getHandle();
+    }
+}
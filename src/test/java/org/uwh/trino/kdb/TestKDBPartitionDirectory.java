@@ -0,0 +1,113 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.trino.spi.connector.ColumnMetadata;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+public class TestKDBPartitionDirectory {
+    private static final Pattern PARTITIONS_FROM = Pattern.compile("^string (\\d+)_ \\.Q\\.pv$");
+
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final List<String> partitions = new CopyOnWriteArrayList<>();
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        queries.clear();
+        partitions.clear();
+        partitions.addAll(List.of("2021.05.27", "2021.05.28", "2021.05.29"));
+        server = new MockKDBServer(query -> {
+            queries.add(query);
+            if (query.startsWith("{[t] p:`boolean$.Q.qp t;")) {
+                boolean partitioned = query.endsWith("[trade]");
+                return new c.Dict(
+                        new String[] {"partitioned", "columns", "types", "attributes", "partitions"},
+                        new Object[] {
+                                partitioned,
+                                partitioned ? new String[] {"date", "Sym", "price"} : new String[] {"Sym", "price"},
+                                partitioned ? new char[] {'d', 's', 'f'} : new char[] {'s', 'f'},
+                                partitioned ? new String[] {"", "p", ""} : new String[] {"", ""},
+                                partitioned ? partitions.stream().map(String::toCharArray).toArray() : new Object[0]});
+            } else if (query.equals("(count .Q.pv; string last .Q.pv)")) {
+                return new Object[] {(long) partitions.size(), partitions.get(partitions.size() - 1).toCharArray()};
+            }
+            Matcher m = PARTITIONS_FROM.matcher(query);
+            if (m.find()) {
+                return partitions.subList(Integer.parseInt(m.group(1)), partitions.size()).stream().map(String::toCharArray).toArray();
+            }
+            throw new IllegalArgumentException("Unexpected query: " + query);
+        });
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopServer() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testIncrementalRefresh() throws Exception {
+        KDBPartitionDirectory directory = new KDBPartitionDirectory(3600);
+        KDBClient client = factory.getDefaultClient();
+
+        KDBTableHandle handle = directory.getTableHandle(client, "", "trade");
+        assertTrue(handle.isPartitioned());
+        assertEquals(handle.getPartitionColumn().get().getName(), "date");
+        assertEquals(handle.getPartitions(), List.of("2021.05.27", "2021.05.28", "2021.05.29"));
+        assertEquals(queries.size(), 1);
+        // columns come with the same round trip
+        List<ColumnMetadata> columns = directory.getColumns("trade").orElseThrow();
+        assertEquals(columns.stream().map(col -> col.getProperties().get("kdb.name")).collect(Collectors.toList()), List.of("date", "Sym", "price"));
+        assertEquals(columns.get(1).getProperties().get("kdb.attribute"), Optional.of(KDBAttribute.Parted));
+        assertEquals(columns.get(0).getProperties().get("kdb.isPartitionColumn"), true);
+
+        // unchanged, only the latest partition is checked
+        queries.clear();
+        assertEquals(directory.getTableHandle(client, "", "trade").getPartitions(), handle.getPartitions());
+        assertEquals(queries, List.of("(count .Q.pv; string last .Q.pv)"));
+
+        // new partitions are fetched from the last known one onwards
+        partitions.addAll(List.of("2021.05.30", "2021.05.31"));
+        queries.clear();
+        assertEquals(directory.getTableHandle(client, "", "trade").getPartitions(),
+                List.of("2021.05.27", "2021.05.28", "2021.05.29", "2021.05.30", "2021.05.31"));
+        assertEquals(queries, List.of("(count .Q.pv; string last .Q.pv)", "string 2_ .Q.pv"));
+
+        // anything but appending reloads all partitions
+        partitions.remove(0);
+        queries.clear();
+        assertEquals(directory.getTableHandle(client, "", "trade").getPartitions(),
+                List.of("2021.05.28", "2021.05.29", "2021.05.30", "2021.05.31"));
+        assertEquals(queries, List.of("(count .Q.pv; string last .Q.pv)", "string 0_ .Q.pv"));
+    }
+
+    @Test
+    public void testNonPartitionedTablesAreCached() throws Exception {
+        KDBPartitionDirectory directory = new KDBPartitionDirectory(3600);
+        KDBClient client = factory.getDefaultClient();
+
+        assertFalse(directory.getTableHandle(client, "", "quote").isPartitioned());
+        assertFalse(directory.getTableHandle(client, "ns", "quote").isPartitioned());
+        assertFalse(directory.getTableHandle(client, "", "quote").isPartitioned());
+        assertEquals(queries.size(), 2);
+        assertTrue(queries.get(1).endsWith("[.ns.quote]"));
+        assertEquals(directory.getColumns(".ns.quote").orElseThrow().size(), 2);
+
+        directory.invalidate("quote");
+        assertFalse(directory.getTableHandle(client, "", "quote").isPartitioned());
+        assertEquals(queries.size(), 3);
+    }
+}
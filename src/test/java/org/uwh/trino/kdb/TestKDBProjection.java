@@ -0,0 +1,149 @@
+package org.uwh.trino.kdb;
+
+import io.airlift.slice.Slices;
+import io.trino.spi.connector.Assignment;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.ProjectionApplicationResult;
+import io.trino.spi.expression.Call;
+import io.trino.spi.expression.ConnectorExpression;
+import io.trino.spi.expression.Constant;
+import io.trino.spi.expression.FunctionName;
+import io.trino.spi.expression.Variable;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.BigintType;
+import io.trino.spi.type.DateType;
+import io.trino.spi.type.DoubleType;
+import io.trino.spi.type.IntegerType;
+import io.trino.spi.type.Type;
+import io.trino.spi.type.VarcharType;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static io.trino.spi.expression.StandardFunctions.*;
+import static org.testng.Assert.*;
+
+public class TestKDBProjection {
+    private static final KDBColumnHandle PRICE = new KDBColumnHandle("price", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false);
+    private static final KDBColumnHandle SIZE = new KDBColumnHandle("size", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false);
+    private static final KDBColumnHandle QTY = new KDBColumnHandle("qty", BigintType.BIGINT, KDBType.Long, Optional.empty(), false);
+    private static final KDBColumnHandle SYM = new KDBColumnHandle("Sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+    private static final KDBColumnHandle NAME = new KDBColumnHandle("name", VarcharType.VARCHAR, KDBType.String, Optional.empty(), false);
+    private static final KDBColumnHandle DATE = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+    private static final Map<String, ColumnHandle> ASSIGNMENTS = Map.of("price", PRICE, "size", SIZE, "qty", QTY, "sym", SYM, "name", NAME, "date", DATE);
+    private static final KDBTableHandle TABLE = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        // metadata refreshes are not under test
+        server = new MockKDBServer(query -> new String[0]);
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testTranslation() {
+        assertEquals(translate(call(DoubleType.DOUBLE, MULTIPLY_FUNCTION_NAME, var("price"), var("size"))), "(price*size)");
+        assertEquals(translate(call(DoubleType.DOUBLE, ADD_FUNCTION_NAME, var("price"), new Constant(-1.5, DoubleType.DOUBLE))), "(price+(-1.5f))");
+        assertEquals(translate(call(DoubleType.DOUBLE, "abs", call(DoubleType.DOUBLE, SUBTRACT_FUNCTION_NAME, var("price"), new Constant(10.0, DoubleType.DOUBLE)))), "(abs (price-10.0f))");
+        assertEquals(translate(call(DoubleType.DOUBLE, CAST_FUNCTION_NAME, var("qty"))), "(`float$qty)");
+        assertEquals(translate(call(VarcharType.VARCHAR, "substr", var("name"), new Constant(1L, BigintType.BIGINT), new Constant(3L, BigintType.BIGINT))), "((0;3) sublist/: name)");
+        assertEquals(translate(call(VarcharType.VARCHAR, "lower", var("sym"))), "(lower Sym)");
+        assertEquals(translate(call(VarcharType.VARCHAR, "concat", var("name"), new Constant(Slices.utf8Slice("-x"), VarcharType.VARCHAR))), "(name,\\:\"-x\")");
+        assertEquals(translate(call(BigintType.BIGINT, "year", var("date"))), "(`long$`year$date)");
+        assertEquals(translate(call(BigintType.BIGINT, "length", var("name"))), "(count each name)");
+
+        // null inputs: q does not carry long nulls through arithmetic (0N+1 is -0W, 2*0N is 0) and wraps on overflow
+        assertFalse(KDBExpressionTranslator.translate(call(BigintType.BIGINT, ADD_FUNCTION_NAME, var("qty"), new Constant(1L, BigintType.BIGINT)), ASSIGNMENTS).isPresent());
+        assertFalse(KDBExpressionTranslator.translate(call(BigintType.BIGINT, MULTIPLY_FUNCTION_NAME, new Constant(2L, BigintType.BIGINT), var("qty")), ASSIGNMENTS).isPresent());
+        assertFalse(KDBExpressionTranslator.translate(call(BigintType.BIGINT, NEGATE_FUNCTION_NAME, var("qty")), ASSIGNMENTS).isPresent());
+        assertFalse(KDBExpressionTranslator.translate(call(BigintType.BIGINT, "abs", var("qty")), ASSIGNMENTS).isPresent());
+        // a null symbol reads as an empty string once converted
+        assertFalse(KDBExpressionTranslator.translate(call(BigintType.BIGINT, "length", var("sym")), ASSIGNMENTS).isPresent());
+        assertFalse(KDBExpressionTranslator.translate(call(VarcharType.VARCHAR, "substr", var("sym"), new Constant(1L, BigintType.BIGINT)), ASSIGNMENTS).isPresent());
+        assertFalse(KDBExpressionTranslator.translate(call(VarcharType.VARCHAR, "concat", var("sym"), new Constant(Slices.utf8Slice("-x"), VarcharType.VARCHAR)), ASSIGNMENTS).isPresent());
+        // NaN in Trino but null in q
+        assertFalse(KDBExpressionTranslator.translate(call(DoubleType.DOUBLE, DIVIDE_FUNCTION_NAME, var("price"), var("size")), ASSIGNMENTS).isPresent());
+        assertFalse(KDBExpressionTranslator.translate(call(DoubleType.DOUBLE, "sqrt", var("price")), ASSIGNMENTS).isPresent());
+        assertFalse(KDBExpressionTranslator.translate(call(DoubleType.DOUBLE, "ln", var("price")), ASSIGNMENTS).isPresent());
+        // null floats stay null
+        assertEquals(translate(call(DoubleType.DOUBLE, NEGATE_FUNCTION_NAME, var("price"))), "(neg price)");
+    }
+
+    @Test
+    public void testUntranslatable() {
+        // integer division truncates in Trino but floors in q
+        assertTrue(KDBExpressionTranslator.translate(call(BigintType.BIGINT, DIVIDE_FUNCTION_NAME, var("qty"), new Constant(3L, BigintType.BIGINT)), ASSIGNMENTS).isEmpty());
+        // negative start positions count from the end
+        assertTrue(KDBExpressionTranslator.translate(call(VarcharType.VARCHAR, "substr", var("sym"), new Constant(-2L, BigintType.BIGINT)), ASSIGNMENTS).isEmpty());
+        // KDB strings have no null
+        assertTrue(KDBExpressionTranslator.translate(call(VarcharType.VARCHAR, CAST_FUNCTION_NAME, var("qty")), ASSIGNMENTS).isEmpty());
+        assertTrue(KDBExpressionTranslator.translate(call(DoubleType.DOUBLE, "cosh", var("price")), ASSIGNMENTS).isEmpty());
+        // the result type has to match
+        assertTrue(KDBExpressionTranslator.translate(call(IntegerType.INTEGER, ADD_FUNCTION_NAME, var("qty"), var("qty")), ASSIGNMENTS).isEmpty());
+    }
+
+    @Test
+    public void testApplyProjection() {
+        ConnectorExpression notional = call(DoubleType.DOUBLE, MULTIPLY_FUNCTION_NAME, var("price"), var("size"));
+        ConnectorExpression local = call(DoubleType.DOUBLE, "cosh", var("price"));
+        ProjectionApplicationResult<?> result = metadata.applyProjection(session, TABLE, List.of(notional, var("sym"), local), ASSIGNMENTS).orElseThrow();
+
+        Variable derived = (Variable) result.getProjections().get(0);
+        assertEquals(result.getProjections().subList(1, 3), List.of(var("sym"), local));
+        Map<String, ColumnHandle> assignments = result.getAssignments().stream().collect(Collectors.toMap(Assignment::getVariable, Assignment::getColumn));
+        assertEquals(assignments.keySet(), Set.of(derived.getName(), "sym", "price"));
+
+        KDBColumnHandle column = (KDBColumnHandle) assignments.get(derived.getName());
+        assertEquals(column.getExpression(), Optional.of("(price*size)"));
+        assertFalse(ASSIGNMENTS.containsKey(column.getName()));
+        assertEquals(TABLE.toQuery(List.of(column, SYM), OptionalInt.empty(), 1000, false), "select " + column.getName() + ": (price*size), Sym from trade");
+
+        // filters on the derived column are evaluated on its expression
+        KDBTableHandle filtered = new KDBTableHandle("", "trade", TupleDomain.withColumnDomains(Map.of(column, Domain.singleValue(DoubleType.DOUBLE, 100.0))), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        assertEquals(filtered.getWhereClause(), Optional.of("(price*size) = 100.0"));
+
+        // nothing left to push down
+        assertTrue(metadata.applyProjection(session, TABLE, result.getProjections(), assignments).isEmpty());
+    }
+
+    private static String translate(ConnectorExpression expression) {
+        return KDBExpressionTranslator.translate(expression, ASSIGNMENTS).orElseThrow().getExpression();
+    }
+
+    private static Variable var(String name) {
+        return new Variable(name, ((KDBColumnHandle) ASSIGNMENTS.get(name)).getType());
+    }
+
+    private static Call call(Type type, String function, ConnectorExpression... args) {
+        return call(type, new FunctionName(function), args);
+    }
+
+    private static Call call(Type type, FunctionName function, ConnectorExpression... args) {
+        return new Call(type, function, List.of(args));
+    }
+}
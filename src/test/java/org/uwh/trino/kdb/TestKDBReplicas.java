@@ -0,0 +1,112 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.predicate.TupleDomain;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+public class TestKDBReplicas {
+    private static final KDBTableHandle TABLE = new KDBTableHandle("", "atable", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+
+    private MockKDBServer replica1;
+    private MockKDBServer replica2;
+
+    @BeforeClass
+    public void startServers() throws Exception {
+        replica1 = new MockKDBServer(TestKDBReplicas::slowCount);
+        replica2 = new MockKDBServer(TestKDBReplicas::slowCount);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServers() throws Exception {
+        replica1.close();
+        replica2.close();
+    }
+
+    private static Object slowCount(String query) {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 100L;
+    }
+
+    @Test
+    public void testParseEndpoints() {
+        List<KDBEndpoint> endpoints = KDBClientFactory.parseEndpoints("hdb1, hdb2:5001,hdb3", 5000, 0, 0);
+        assertEquals(endpoints.stream().map(KDBEndpoint::toString).toArray(), new String[] {"hdb1:5000", "hdb2:5001", "hdb3:5000"});
+        assertThrows(IllegalArgumentException.class, () -> KDBClientFactory.parseEndpoints(" ", 5000, 0, 0));
+    }
+
+    @Test
+    public void testSpreadsLoad() throws Exception {
+        KDBClientFactory factory = factory("localhost:" + replica1.getPort() + ",localhost:" + replica2.getPort());
+        KDBClient client = factory.getDefaultClient();
+        int before1 = replica1.getRequests();
+        int before2 = replica2.getRequests();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 80; i++) {
+                results.add(executor.submit(() -> client.getRowCount(TABLE)));
+            }
+            for (Future<Long> result : results) {
+                assertEquals((long) result.get(), 100L);
+            }
+        } finally {
+            executor.shutdownNow();
+            factory.close();
+        }
+
+        int requests1 = replica1.getRequests() - before1;
+        int requests2 = replica2.getRequests() - before2;
+        assertEquals(requests1 + requests2, 80);
+        // concurrent requests are spread by outstanding requests, each replica should get a fair share
+        assertTrue(requests1 >= 20, "replica 1 served " + requests1);
+        assertTrue(requests2 >= 20, "replica 2 served " + requests2);
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        int deadPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            deadPort = socket.getLocalPort();
+        }
+
+        KDBClientFactory factory = factory("localhost:" + deadPort + ",localhost:" + replica1.getPort());
+        try {
+            KDBClient client = factory.getDefaultClient();
+            for (int i = 0; i < 5; i++) {
+                assertEquals(client.getRowCount(TABLE), 100L);
+            }
+
+            KDBEndpoint dead = factory.getEndpoints().get(0);
+            assertFalse(dead.isHealthy());
+            assertTrue(factory.getEndpoints().get(1).isHealthy());
+            // pinned clients avoid the replica that is down
+            assertEquals(client.pinned().getEndpoints(), "localhost:" + replica1.getPort());
+            // unless the data is only on that replica
+            assertThrows(IOException.class, () -> client.onlyOn("localhost:" + deadPort).getRowCount(TABLE));
+        } finally {
+            factory.close();
+        }
+    }
+
+    private static KDBClientFactory factory(String hosts) {
+        return new KDBClientFactory(hosts, 0, "user", "password", Optional.empty(), Optional.empty(), 8, 60, 5, 0);
+    }
+}
@@ -1,39 +1,321 @@
 package org.uwh.trino.kdb;
 
+import io.airlift.json.JsonCodec;
+import io.airlift.slice.Slices;
+import io.trino.client.NodeVersion;
+import io.trino.metadata.InternalNode;
+import io.trino.spi.HostAddress;
+import io.trino.spi.Node;
 import io.trino.spi.connector.*;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.Range;
 import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.predicate.ValueSet;
 import io.trino.spi.type.DateType;
+import io.trino.spi.type.VarcharType;
+import io.trino.testing.TestingConnectorSession;
+import io.trino.testing.TestingNodeManager;
 import org.testng.annotations.Test;
 import static org.testng.Assert.*;
 
+import java.net.URI;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class TestKDBSplits {
-    KDBSplitManager sut = new KDBSplitManager();
+    KDBSplitManager sut = new KDBSplitManager(null, new TestingNodeManager(), Map.of(), false);
+    ConnectorSession session = TestingConnectorSession.builder()
+            .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+            .build();
 
     @Test
     public void testNonPartitionedTableSplits() throws Exception {
-        ConnectorSplitSource splits = sut.getSplits(null, null,
-                new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of()),
+        ConnectorSplitSource splits = sut.getSplits(null, session,
+                new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty()),
                 ConnectorSplitManager.SplitSchedulingStrategy.GROUPED_SCHEDULING, DynamicFilter.EMPTY);
         assertEquals(noOfSplits(splits), 1);
     }
 
     @Test
     public void testPartitionedTableSplits() throws Exception {
-        ConnectorSplitSource splits = sut.getSplits(null, null,
+        ConnectorSplitSource splits = sut.getSplits(null, session,
                 new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(),
                         true,
                         Optional.of(new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true)),
                         List.of("2021.05.28", "2021.05.29", "2021.05.30", "2021.05.31"),
-                        List.of()),
+                        List.of(),
+                        Optional.empty()),
                 ConnectorSplitManager.SplitSchedulingStrategy.GROUPED_SCHEDULING, DynamicFilter.EMPTY);
         assertEquals(noOfSplits(splits), 4);
     }
 
+    @Test
+    public void testConstraintPrunesPartitions() throws Exception {
+        KDBColumnHandle date = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+        ConnectorSplitSource splits = sut.getSplits(null, session,
+                new KDBTableHandle("", "table",
+                        TupleDomain.withColumnDomains(Map.of(date, Domain.create(ValueSet.ofRanges(Range.range(DateType.DATE,
+                                LocalDate.of(2021, 5, 29).toEpochDay(), true,
+                                LocalDate.of(2021, 5, 30).toEpochDay(), true)), false))),
+                        OptionalLong.empty(),
+                        true,
+                        Optional.of(date),
+                        List.of("2021.05.28", "2021.05.29", "2021.05.30", "2021.05.31"),
+                        List.of(),
+                        Optional.empty()),
+                ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING, DynamicFilter.EMPTY);
+        assertEquals(noOfSplits(splits), 2);
+
+        splits = sut.getSplits(null, session,
+                new KDBTableHandle("", "table", TupleDomain.none(), OptionalLong.empty(), true, Optional.of(date), List.of("2021.05.28"), List.of(), Optional.empty()),
+                ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING, DynamicFilter.EMPTY);
+        assertEquals(noOfSplits(splits), 0);
+    }
+
+    @Test
+    public void testDynamicFilterPrunesPartitions() throws Exception {
+        KDBColumnHandle date = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+        KDBTableHandle handle = new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(),
+                true,
+                Optional.of(date),
+                List.of("2021.05.28", "2021.05.29", "2021.05.30", "2021.05.31"),
+                List.of(),
+                Optional.empty());
+        TestingDynamicFilter dynamicFilter = new TestingDynamicFilter(Set.of(date));
+        ConnectorSplitSource splits = new KDBSplitSource(handle, dynamicFilter, 10_000, 0, 0, Map.of(), Map.of(), KDBSplitAffinity.NONE);
+
+        // nothing is handed out while the dynamic filter is pending
+        CompletableFuture<ConnectorSplitSource.ConnectorSplitBatch> batch = splits.getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 100);
+        assertFalse(batch.isDone());
+
+        dynamicFilter.complete(TupleDomain.withColumnDomains(Map.of(date, Domain.multipleValues(DateType.DATE, List.of(
+                LocalDate.of(2021, 5, 29).toEpochDay(),
+                LocalDate.of(2021, 5, 31).toEpochDay())))));
+        assertTrue(batch.get(10, TimeUnit.SECONDS).getSplits().isEmpty());
+        assertFalse(splits.isFinished());
+
+        ConnectorSplitSource.ConnectorSplitBatch result = splits.getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 100).get();
+        assertTrue(result.isNoMoreSplits());
+        assertEquals(
+                result.getSplits().stream().map(split -> ((KDBSplit) split).getPartition().get()).collect(Collectors.toList()),
+                List.of("2021.05.29", "2021.05.31"));
+    }
+
+    @Test
+    public void testRowRangeSplits() throws Exception {
+        KDBTableHandle handle = new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        ConnectorSplitSource source = new KDBSplitSource(handle, DynamicFilter.EMPTY, 0, 100, 250, Map.of(), Map.of(), KDBSplitAffinity.NONE);
+
+        List<ConnectorSplit> splits = source.getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 2).get().getSplits();
+        assertEquals(splits.size(), 2);
+        assertFalse(source.isFinished());
+        ConnectorSplitSource.ConnectorSplitBatch last = source.getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 2).get();
+        assertTrue(last.isNoMoreSplits());
+        assertEquals(last.getSplits().size(), 1);
+
+        KDBRowRange first = ((KDBSplit) splits.get(0)).getRowRange().get();
+        assertEquals(first.getStart(), 0);
+        assertEquals(first.getEnd(), 100);
+        assertEquals(first.toKDBFilter(), "i within 0 99");
+        // the last range picks up rows added after counting
+        assertEquals(((KDBSplit) last.getSplits().get(0)).getRowRange().get().toKDBFilter(), "i >= 200");
+
+        KDBColumnHandle sym = new KDBColumnHandle("sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+        KDBTableHandle split = new KDBTableHandle("", "table",
+                TupleDomain.withColumnDomains(Map.of(sym, Domain.singleValue(VarcharType.VARCHAR, Slices.utf8Slice("ibm")))),
+                OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.of(first));
+        assertEquals(split.toQuery(List.of(sym), OptionalInt.of(0), 50000, false), "select [50000] sym from table where i within 0 99, sym = `ibm");
+    }
+
+    @Test
+    public void testSmallTableIsNotSplit() throws Exception {
+        KDBTableHandle handle = new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        ConnectorSplitSource.ConnectorSplitBatch batch = new KDBSplitSource(handle, DynamicFilter.EMPTY, 0, 100, 100, Map.of(), Map.of(), KDBSplitAffinity.NONE).getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 10).get();
+        assertEquals(batch.getSplits().size(), 1);
+        assertTrue(((KDBSplit) batch.getSplits().get(0)).getRowRange().isEmpty());
+    }
+
+    @Test
+    public void testLargePartitionsAreSplit() throws Exception {
+        KDBColumnHandle date = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+        KDBTableHandle handle = new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(),
+                true,
+                Optional.of(date),
+                List.of("2021.05.28", "2021.05.29", "2021.05.30"),
+                List.of(),
+                Optional.empty());
+        ConnectorSplitSource source = new KDBSplitSource(handle, DynamicFilter.EMPTY, 0, 100,
+                0, Map.of("2021.05.28", 50L, "2021.05.29", 300L, "2021.05.30", 100L), Map.of(), KDBSplitAffinity.NONE);
+
+        List<KDBSplit> splits = source.getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 100).get().getSplits().stream()
+                .map(KDBSplit.class::cast)
+                .collect(Collectors.toList());
+        assertTrue(source.isFinished());
+        assertEquals(
+                splits.stream().map(split -> split.getPartition().get() + split.getRowRange().map(r -> " " + r.toKDBFilter()).orElse("")).collect(Collectors.toList()),
+                List.of("2021.05.28", "2021.05.29 i within 0 99", "2021.05.29 i within 100 199", "2021.05.29 i >= 200", "2021.05.30"));
+
+        // the partition constraint stays first, so that KDB only reads the one partition
+        KDBColumnHandle sym = new KDBColumnHandle("sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+        KDBTableHandle split = new KDBTableHandle("", "table",
+                TupleDomain.withColumnDomains(Map.of(
+                        date, Domain.singleValue(DateType.DATE, LocalDate.of(2021, 5, 29).toEpochDay()),
+                        sym, Domain.singleValue(VarcharType.VARCHAR, Slices.utf8Slice("ibm")))),
+                OptionalLong.empty(), true, Optional.of(date), handle.getPartitions(), List.of(), splits.get(2).getRowRange());
+        assertEquals(split.getWhereClause().get(), "date = 2021.05.29, i within 100 199, sym = `ibm");
+    }
+
+    @Test
+    public void testSplitAffinity() throws Exception {
+        KDBClientFactory factory = new KDBClientFactory("hdb1:5000,hdb2:5000,hdb3:5000", 5000, "user", "password", Optional.empty(), Optional.empty());
+        KDBSplitManager manager = new KDBSplitManager(factory, workers("hdb1", "hdb2", "worker3"), Map.of("hdb3", "worker3"), false);
+        KDBTableHandle handle = new KDBTableHandle("", "table", TupleDomain.all(), OptionalLong.empty(),
+                true,
+                Optional.of(new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true)),
+                List.of("2021.05.28", "2021.05.29", "2021.05.30", "2021.05.31"),
+                List.of(),
+                Optional.empty());
+
+        for (String mode : List.of("soft", "hard")) {
+            ConnectorSession affinitySession = TestingConnectorSession.builder()
+                    .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+                    .setPropertyValues(Map.of(Config.SESSION_SPLIT_AFFINITY, mode))
+                    .build();
+            List<KDBSplit> splits = manager.getSplits(null, affinitySession, handle, ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING, DynamicFilter.EMPTY)
+                    .getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 10).get().getSplits().stream()
+                    .map(KDBSplit.class::cast)
+                    .collect(Collectors.toList());
+
+            assertEquals(splits.stream().map(split -> split.getEndpoint().get()).collect(Collectors.toList()),
+                    List.of("hdb1:5000", "hdb2:5000", "hdb3:5000", "hdb1:5000"));
+            assertEquals(splits.stream().map(split -> split.getAddresses().get(0).toString()).collect(Collectors.toList()),
+                    List.of("hdb1", "hdb2", "worker3", "hdb1"));
+            assertEquals(splits.get(0).isRemotelyAccessible(), mode.equals("soft"));
+        }
+
+        // no affinity by default
+        KDBSplit split = (KDBSplit) manager.getSplits(null, session, handle, ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING, DynamicFilter.EMPTY)
+                .getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 10).get().getSplits().get(0);
+        assertTrue(split.getEndpoint().isEmpty());
+        assertTrue(split.getAddresses().isEmpty());
+        assertTrue(split.isRemotelyAccessible());
+
+        // hard affinity to a host without a Trino worker could never be scheduled
+        ConnectorSession hardSession = TestingConnectorSession.builder()
+                .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+                .setPropertyValues(Map.of(Config.SESSION_SPLIT_AFFINITY, "hard"))
+                .build();
+        KDBSplitManager missingWorker = new KDBSplitManager(factory, workers("hdb1", "hdb2"), Map.of("hdb3", "worker3"), false);
+        assertThrows(IllegalArgumentException.class, () -> missingWorker.getSplits(null, hardSession, handle, ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING, DynamicFilter.EMPTY));
+        factory.close();
+    }
+
+    @Test
+    public void testSlicedPartitions() throws Exception {
+        Object slice1 = new Object[] {"2021.05.28".toCharArray(), "2021.05.29".toCharArray()};
+        Object slice2 = new Object[] {"2021.05.30".toCharArray(), "2021.05.31".toCharArray()};
+        try (MockKDBServer server1 = new MockKDBServer(query -> query.contains(".Q.pv") ? slice1 : null);
+             MockKDBServer server2 = new MockKDBServer(query -> query.contains(".Q.pv") ? slice2 : null)) {
+            String endpoint1 = "localhost:" + server1.getPort();
+            String endpoint2 = "localhost:" + server2.getPort();
+            KDBClientFactory factory = new KDBClientFactory(endpoint1 + "," + endpoint2, 5000, "user", "password", Optional.empty(), Optional.empty());
+            KDBColumnHandle date = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+            // metadata read from the first slice, the constraint drops the first partition
+            KDBTableHandle handle = new KDBTableHandle("", "table",
+                    TupleDomain.withColumnDomains(Map.of(date, Domain.create(ValueSet.ofRanges(Range.greaterThan(DateType.DATE, LocalDate.of(2021, 5, 28).toEpochDay())), false))),
+                    OptionalLong.empty(),
+                    true,
+                    Optional.of(date),
+                    List.of("2021.05.28", "2021.05.29"),
+                    List.of(),
+                    Optional.empty());
+
+            for (String mode : List.of("none", "soft")) {
+                ConnectorSession slicedSession = TestingConnectorSession.builder()
+                        .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+                        .setPropertyValues(Map.of(Config.SESSION_SPLIT_AFFINITY, mode))
+                        .build();
+                List<KDBSplit> splits = new KDBSplitManager(factory, workers("localhost"), Map.of(), true)
+                        .getSplits(null, slicedSession, handle, ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING, DynamicFilter.EMPTY)
+                        .getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 10).get().getSplits().stream()
+                        .map(KDBSplit.class::cast)
+                        .collect(Collectors.toList());
+
+                // every partition is read from the endpoint holding it, whatever the affinity mode
+                assertEquals(splits.stream().map(split -> split.getPartition().get()).collect(Collectors.toList()),
+                        List.of("2021.05.29", "2021.05.30", "2021.05.31"));
+                assertEquals(splits.stream().map(split -> split.getEndpoint().get()).collect(Collectors.toList()),
+                        List.of(endpoint1, endpoint2, endpoint2));
+                assertEquals(splits.get(0).getAddresses().isEmpty(), mode.equals("none"));
+                assertTrue(splits.get(0).isRemotelyAccessible());
+            }
+            factory.close();
+        }
+    }
+
+    private static TestingNodeManager workers(String... hosts) {
+        return new TestingNodeManager(List.of(hosts).stream()
+                .map(host -> (Node) new InternalNode(host, URI.create("http://" + host + ":8080"), NodeVersion.UNKNOWN, false))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSegmentInterleave() throws Exception {
+        // 2 segments, the first holding most partitions
+        Object segments = new Object[] {
+                new Object[] {"2021.05.27".toCharArray(), "2021.05.28".toCharArray(), "2021.05.29".toCharArray(), "2021.05.30".toCharArray(), "2021.05.31".toCharArray()},
+                new Object[] {":/disk1/db".toCharArray(), ":/disk1/db".toCharArray(), ":/disk1/db".toCharArray(), ":/disk2/db".toCharArray(), ":/disk2/db".toCharArray()}};
+        try (MockKDBServer server = new MockKDBServer(query -> query.contains(".Q.pd") ? segments : null)) {
+            KDBClientFactory factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+            KDBColumnHandle date = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+            KDBTableHandle handle = new KDBTableHandle("", "table",
+                    TupleDomain.withColumnDomains(Map.of(date, Domain.create(ValueSet.ofRanges(Range.greaterThan(DateType.DATE, LocalDate.of(2021, 5, 27).toEpochDay())), false))),
+                    OptionalLong.empty(),
+                    true,
+                    Optional.of(date),
+                    List.of("2021.05.27", "2021.05.28", "2021.05.29", "2021.05.30", "2021.05.31"),
+                    List.of(),
+                    Optional.empty());
+            ConnectorSession segmentSession = TestingConnectorSession.builder()
+                    .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+                    .setPropertyValues(Map.of(Config.SESSION_SEGMENT_INTERLEAVE, true))
+                    .build();
+
+            List<KDBSplit> splits = new KDBSplitManager(factory, new TestingNodeManager(), Map.of(), false)
+                    .getSplits(null, segmentSession, handle, ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING, DynamicFilter.EMPTY)
+                    .getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, 10).get().getSplits().stream()
+                    .map(KDBSplit.class::cast)
+                    .collect(Collectors.toList());
+            factory.close();
+
+            assertEquals(splits.stream().map(split -> split.getPartition().get()).collect(Collectors.toList()),
+                    List.of("2021.05.28", "2021.05.30", "2021.05.29", "2021.05.31"));
+            assertEquals(splits.stream().map(split -> split.getSegment().get()).collect(Collectors.toList()),
+                    List.of(":/disk1/db", ":/disk2/db", ":/disk1/db", ":/disk2/db"));
+        }
+    }
+
+    @Test
+    public void testSplitSerialization() {
+        JsonCodec<KDBSplit> codec = JsonCodec.jsonCodec(KDBSplit.class);
+        KDBSplit split = new KDBSplit("table", Optional.of("2021.05.28"), Optional.of(new KDBRowRange(0, 100)),
+                Optional.of(":/disk1/db"), Optional.of("hdb1:5000"), List.of(HostAddress.fromString("worker1")), false);
+        KDBSplit copy = codec.fromJson(codec.toJson(split));
+        assertEquals(copy.getSegment(), split.getSegment());
+        assertEquals(copy.getEndpoint(), split.getEndpoint());
+        assertEquals(copy.getAddresses(), split.getAddresses());
+        assertEquals(copy.isRemotelyAccessible(), false);
+        assertEquals(copy.getRowRange().get().toKDBFilter(), "i within 0 99");
+    }
+
     private int noOfSplits(ConnectorSplitSource source) throws Exception {
         return source.getNextBatch(NotPartitionedPartitionHandle.NOT_PARTITIONED, Integer.MAX_VALUE).get().getSplits().size();
     }
@@ -0,0 +1,96 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.statistics.TableStatistics;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class TestKDBStatsManager {
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private ConnectorSession session;
+    private volatile boolean failing;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        server = new MockKDBServer(query -> {
+            queries.add(query);
+            // no pre-generated stats, or an unexpected answer while failing
+            return failing ? "error" : (Object) false;
+        });
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @BeforeMethod
+    public void reset() {
+        queries.clear();
+        failing = false;
+    }
+
+    @Test
+    public void testRefreshInBackground() throws Exception {
+        StatsManager stats = new StatsManager(factory, new Config(Map.of(Config.KDB_STATS_REFRESH_INTERVAL, "1")));
+        try {
+            KDBTableHandle table = table("atable");
+            assertEquals(stats.getTableStats(table, session, false), TableStatistics.empty());
+            assertEquals(stats.getTableStats(table, session, false), TableStatistics.empty());
+            assertEquals(queries.size(), 1);
+
+            Thread.sleep(1100);
+            // stale stats are returned right away while they are reloaded
+            assertEquals(stats.getTableStats(table, session, false), TableStatistics.empty());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (queries.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(queries.size(), 2);
+        } finally {
+            stats.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        StatsManager stats = new StatsManager(factory);
+        try {
+            KDBTableHandle table = table("atable");
+            failing = true;
+            assertEquals(stats.getTableStats(table, session, false), TableStatistics.empty());
+            assertEquals(stats.getTableStats(table, session, false), TableStatistics.empty());
+            assertEquals(queries.size(), 2);
+
+            failing = false;
+            assertEquals(stats.getTableStats(table, session, false), TableStatistics.empty());
+            assertEquals(stats.getTableStats(table, session, false), TableStatistics.empty());
+            assertEquals(queries.size(), 3);
+        } finally {
+            stats.shutdown();
+        }
+    }
+
+    private static KDBTableHandle table(String name) {
+        return new KDBTableHandle("", name, TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+    }
+}
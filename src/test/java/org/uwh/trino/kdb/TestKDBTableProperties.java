@@ -0,0 +1,112 @@
+package org.uwh.trino.kdb;
+
+import com.kx.c;
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.ConnectorTableProperties;
+import io.trino.spi.connector.GroupingProperty;
+import io.trino.spi.connector.LocalProperty;
+import io.trino.spi.connector.SchemaTablePrefix;
+import io.trino.spi.connector.SortingProperty;
+import io.trino.spi.connector.SortOrder;
+import io.trino.spi.predicate.Domain;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.BigintType;
+import io.trino.spi.type.DateType;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.testng.Assert.*;
+
+public class TestKDBTableProperties {
+    private static final String LIST_TABLES = "(uj/) ({[ns] ns:`$\".\", string ns; ts: tables ns; ([] ns:(count ts)#ns; table:ts)} each ((enlist `) , key `))";
+
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        server = new MockKDBServer(query -> {
+            if (query.equals(LIST_TABLES)) {
+                return new c.Flip(new c.Dict(new String[] {"ns", "table"}, new Object[] {new String[] {"."}, new String[] {"trade"}}));
+            } else if (query.startsWith("exec distinct ns")) {
+                return new String[] {"."};
+            } else if (query.startsWith("{[ns] ts:tables ns;")) {
+                return new c.Flip(new c.Dict(
+                        new String[] {"table", "partitioned", "columns", "types", "attributes"},
+                        new Object[] {
+                                new String[] {"trade"},
+                                new boolean[] {false},
+                                new Object[] {new String[] {"time", "sym", "venue", "id", "price"}},
+                                new Object[] {new char[] {'p', 's', 's', 'j', 'f'}},
+                                new Object[] {new String[] {"s", "p", "g", "u", ""}}}));
+            }
+            throw new IllegalArgumentException("Unexpected query: " + query);
+        });
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+        metadata.listTableColumns(session, new SchemaTablePrefix());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testAttributes() {
+        KDBTableHandle handle = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+        List<LocalProperty<ColumnHandle>> properties = metadata.getTableProperties(session, handle).getLocalProperties();
+
+        Map<String, ColumnHandle> columns = metadata.getColumnHandles(session, handle);
+        assertEquals(properties, List.of(
+                new SortingProperty<>(columns.get("time"), SortOrder.ASC_NULLS_FIRST),
+                new GroupingProperty<>(Set.of(columns.get("sym"))),
+                new GroupingProperty<>(Set.of(columns.get("id")))));
+
+        // row ranges split the table, so the order only holds within each split
+        ConnectorSession split = TestingConnectorSession.builder()
+                .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+                .setPropertyValues(Map.of(Config.SESSION_SPLIT_TARGET_ROWS, 1000))
+                .build();
+        assertTrue(metadata.getTableProperties(split, handle).getLocalProperties().isEmpty());
+    }
+
+    @Test
+    public void testTopNOrder() {
+        KDBColumnHandle price = new KDBColumnHandle("price", BigintType.BIGINT, KDBType.Long, Optional.empty(), false);
+        KDBTableHandle handle = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.of(10), false, Optional.empty(), List.of(), List.of(), Optional.empty(),
+                List.of(new KDBSortItem(price, false, false)));
+        assertEquals(metadata.getTableProperties(session, handle).getLocalProperties(), List.of(new SortingProperty<>(price, SortOrder.DESC_NULLS_LAST)));
+    }
+
+    @Test
+    public void testPartitions() {
+        KDBColumnHandle date = new KDBColumnHandle("date", DateType.DATE, KDBType.Date, Optional.empty(), true);
+        TupleDomain<ColumnHandle> constraint = TupleDomain.withColumnDomains(Map.of(date, Domain.singleValue(DateType.DATE, LocalDate.of(2021, 1, 2).toEpochDay())));
+        KDBTableHandle handle = new KDBTableHandle("", "quote", constraint, OptionalLong.empty(), true, Optional.of(date), List.of("2021.01.01", "2021.01.02", "2021.01.03"), List.of(), Optional.empty());
+
+        ConnectorTableProperties properties = metadata.getTableProperties(session, handle);
+        assertEquals(properties.getPredicate(), constraint);
+        assertTrue(properties.getLocalProperties().isEmpty());
+        assertEquals(properties.getDiscretePredicates().orElseThrow().getColumns(), List.of(date));
+        List<TupleDomain<ColumnHandle>> partitions = StreamSupport.stream(properties.getDiscretePredicates().get().getPredicates().spliterator(), false).collect(Collectors.toList());
+        assertEquals(partitions, List.of(constraint));
+    }
+}
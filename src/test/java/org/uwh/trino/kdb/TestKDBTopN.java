@@ -0,0 +1,110 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.ConnectorSession;
+import io.trino.spi.connector.ConnectorTableHandle;
+import io.trino.spi.connector.SortItem;
+import io.trino.spi.connector.SortOrder;
+import io.trino.spi.connector.TopNApplicationResult;
+import io.trino.spi.predicate.TupleDomain;
+import io.trino.spi.type.BigintType;
+import io.trino.spi.type.DoubleType;
+import io.trino.spi.type.VarcharType;
+import io.trino.testing.TestingConnectorSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+import static org.testng.Assert.*;
+
+public class TestKDBTopN {
+    private static final KDBColumnHandle PRICE = new KDBColumnHandle("price", DoubleType.DOUBLE, KDBType.Float, Optional.empty(), false);
+    private static final KDBColumnHandle QTY = new KDBColumnHandle("qty", BigintType.BIGINT, KDBType.Long, Optional.empty(), false);
+    private static final KDBColumnHandle SYM = new KDBColumnHandle("sym", VarcharType.VARCHAR, KDBType.Symbol, Optional.empty(), false);
+    private static final KDBColumnHandle NAME = new KDBColumnHandle("name", VarcharType.VARCHAR, KDBType.String, Optional.empty(), false);
+    private static final Map<String, ColumnHandle> ASSIGNMENTS = Map.of("price", PRICE, "qty", QTY, "sym", SYM, "name", NAME);
+    private static final KDBTableHandle TABLE = new KDBTableHandle("", "trade", TupleDomain.all(), OptionalLong.empty(), false, Optional.empty(), List.of(), List.of(), Optional.empty());
+    private static final KDBTableHandle PARTITIONED = new KDBTableHandle("", "quote", TupleDomain.all(), OptionalLong.empty(), true, Optional.empty(), List.of(), List.of(), Optional.empty());
+
+    private MockKDBServer server;
+    private KDBClientFactory factory;
+    private KDBMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        // metadata refreshes are not under test
+        server = new MockKDBServer(query -> new String[0]);
+        factory = new KDBClientFactory("localhost", server.getPort(), "user", "password", Optional.empty(), Optional.empty());
+        Config cfg = new Config(Map.of());
+        session = TestingConnectorSession.builder().setPropertyMetadata(cfg.getSessionProperties()).build();
+        metadata = new KDBMetadata(factory, cfg, new StatsManager(factory));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testSortQuery() {
+        assertEquals(new KDBSortItem(PRICE, true, true).toKDBSort(), "p:p iasc t[`price] p; ");
+        assertEquals(new KDBSortItem(PRICE, false, false).toKDBSort(), "p:p idesc t[`price] p; ");
+        assertEquals(new KDBSortItem(PRICE, true, false).toKDBSort(), "p:p iasc t[`price] p; p:p iasc null t[`price] p; ");
+        assertEquals(new KDBSortItem(SYM, false, true).toKDBSort(), "p:p idesc string t[`sym] p; p:p idesc null t[`sym] p; ");
+        assertEquals(new KDBSortItem(NAME, true, false).toKDBSort(), "p:p iasc t[`name] p; ");
+
+        KDBTableHandle handle = topN(TABLE, 10, sort("price", SortOrder.DESC_NULLS_LAST), sort("sym", SortOrder.ASC_NULLS_FIRST)).getHandle();
+        assertEquals(handle.toQuery(List.of(PRICE, SYM), OptionalInt.empty(), 1000, false),
+                "{[t] p:til count t; p:p iasc string t[`sym] p; p:p idesc t[`price] p; 10 sublist t p}[select price, sym from trade]");
+        // sort keys outside the select list are dropped after sorting, paging applies to the sorted rows
+        assertEquals(handle.toQuery(List.of(QTY), OptionalInt.of(1), 5, false),
+                "select [5 5] from select qty from {[t] p:til count t; p:p iasc string t[`sym] p; p:p idesc t[`price] p; 10 sublist t p}[select qty, price, sym from trade]");
+    }
+
+    @Test
+    public void testApplyTopN() {
+        TopNApplicationResult<KDBTableHandle> result = topN(TABLE, 10, sort("qty", SortOrder.ASC_NULLS_LAST));
+        assertTrue(result.isTopNGuaranteed());
+        assertEquals(result.getHandle().getLimit(), OptionalLong.of(10));
+        assertEquals(result.getHandle().getSortOrder(), List.of(new KDBSortItem(QTY, true, false)));
+
+        // same order with a smaller count narrows, anything else is left to Trino
+        assertEquals(topN(result.getHandle(), 5, sort("qty", SortOrder.ASC_NULLS_LAST)).getHandle().getLimit(), OptionalLong.of(5));
+        assertTrue(metadata.applyTopN(session, result.getHandle(), 20, List.of(sort("qty", SortOrder.ASC_NULLS_LAST)), ASSIGNMENTS).isEmpty());
+        assertTrue(metadata.applyTopN(session, result.getHandle(), 5, List.of(sort("qty", SortOrder.DESC_NULLS_LAST)), ASSIGNMENTS).isEmpty());
+
+        KDBTableHandle limited = (KDBTableHandle) metadata.applyLimit(session, TABLE, 100).orElseThrow().getHandle();
+        assertTrue(metadata.applyTopN(session, limited, 10, List.of(sort("qty", SortOrder.ASC_NULLS_LAST)), ASSIGNMENTS).isEmpty());
+
+        // partitions are sorted and limited one split at a time
+        assertFalse(topN(PARTITIONED, 10, sort("qty", SortOrder.ASC_NULLS_LAST)).isTopNGuaranteed());
+
+        assertTrue(metadata.applyAggregation(session, result.getHandle(), List.of(), Map.of(), List.of(List.of())).isEmpty());
+    }
+
+    @Test
+    public void testDisabled() {
+        ConnectorSession disabled = TestingConnectorSession.builder()
+                .setPropertyMetadata(new Config(Map.of()).getSessionProperties())
+                .setPropertyValues(Map.of(Config.SESSION_PUSH_DOWN_TOPN, false))
+                .build();
+        assertTrue(metadata.applyTopN(disabled, TABLE, 10, List.of(sort("qty", SortOrder.ASC_NULLS_LAST)), ASSIGNMENTS).isEmpty());
+    }
+
+    private TopNApplicationResult<KDBTableHandle> topN(KDBTableHandle handle, long count, SortItem... items) {
+        TopNApplicationResult<ConnectorTableHandle> result = metadata.applyTopN(session, handle, count, List.of(items), ASSIGNMENTS).orElseThrow();
+        return new TopNApplicationResult<>((KDBTableHandle) result.getHandle(), result.isTopNGuaranteed(), result.isPrecalculateStatistics());
+    }
+
+    private static SortItem sort(String name, SortOrder order) {
+        return new SortItem(name, order);
+    }
+}
@@ -0,0 +1,51 @@
+package org.uwh.trino.kdb;
+
+import io.trino.spi.connector.ColumnHandle;
+import io.trino.spi.connector.DynamicFilter;
+import io.trino.spi.predicate.TupleDomain;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Dynamic filter that stays pending until the test completes it with a predicate.
+ */
+public class TestingDynamicFilter implements DynamicFilter {
+    private final Set<ColumnHandle> columns;
+    private final CompletableFuture<?> blocked = new CompletableFuture<>();
+    private volatile TupleDomain<ColumnHandle> predicate = TupleDomain.all();
+
+    public TestingDynamicFilter(Set<ColumnHandle> columns) {
+        this.columns = columns;
+    }
+
+    public void complete(TupleDomain<ColumnHandle> predicate) {
+        this.predicate = predicate;
+        blocked.complete(null);
+    }
+
+    @Override
+    public Set<ColumnHandle> getColumnsCovered() {
+        return columns;
+    }
+
+    @Override
+    public CompletableFuture<?> isBlocked() {
+        return blocked;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return blocked.isDone();
+    }
+
+    @Override
+    public boolean isAwaitable() {
+        return !blocked.isDone();
+    }
+
+    @Override
+    public TupleDomain<ColumnHandle> getCurrentPredicate() {
+        return predicate;
+    }
+}